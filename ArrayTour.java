@@ -0,0 +1,88 @@
+/*
+ArrayTour.java
+A tour kept as an array of cities plus where each city is in it. next and prev are O(1), reversals are O(n)
+*/
+
+public class ArrayTour implements Tour
+{
+    final int n;
+    final int[] tour;
+    final int[] pos;
+
+    public ArrayTour(int n)
+    {
+        this.n = n;
+        this.tour = new int[n];
+        this.pos = new int[n];
+    }
+
+    public void load(int[] cities)
+    {
+        for (int i = 0; i < this.n; i++)
+        {
+            this.tour[i] = cities[i];
+            this.pos[cities[i]] = i;
+        }
+    }
+
+    public void store(int[] cities)
+    {
+        System.arraycopy(this.tour, 0, cities, 0, this.n);
+    }
+
+    public int next(int city)
+    {
+        int i = this.pos[city] + 1;
+        return this.tour[i == this.n ? 0 : i];
+    }
+
+    public int prev(int city)
+    {
+        int i = this.pos[city] - 1;
+        return this.tour[i < 0 ? this.n-1 : i];
+    }
+
+    public boolean between(int a, int b, int c)
+    {
+        int i = this.pos[a];
+        int j = this.pos[b];
+        int k = this.pos[c];
+        if (i <= k)
+        {
+            return i <= j && j <= k;
+        }
+        return j >= i || j <= k;
+    }
+
+    /*If the rest of the tour is shorter than the path, reverse that instead*/
+    public void reverse(int from, int to)
+    {
+        int i = this.pos[from];
+        int j = this.pos[to];
+        int inner = j - i;
+        if (inner < 0)
+        {
+            inner += this.n;
+        }
+        inner++;
+        if (2*inner > this.n)
+        {
+            int temp = i;
+            i = j + 1 == this.n ? 0 : j + 1;
+            j = temp == 0 ? this.n-1 : temp - 1;
+            inner = this.n - inner;
+        }
+
+        for (int swaps = inner / 2; swaps > 0; swaps--)
+        {
+            int ci = this.tour[i];
+            int cj = this.tour[j];
+            this.tour[i] = cj;
+            this.pos[cj] = i;
+            this.tour[j] = ci;
+            this.pos[ci] = j;
+            i = i + 1 == this.n ? 0 : i + 1;
+            j = j == 0 ? this.n-1 : j - 1;
+        }
+    }
+}
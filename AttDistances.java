@@ -0,0 +1,22 @@
+/*
+AttDistances.java
+TSPLIB's ATT pseudo-Euclidean distances, used by att48 and att532.
+They grow with the Euclidean distance, so the k-d tree over the coordinates still finds the nearest neighbors
+*/
+
+public class AttDistances extends EuclideanDistances
+{
+    public AttDistances(double[] xs, double[] ys)
+    {
+        super(xs, ys);
+    }
+
+    public int dist(int i, int j)
+    {
+        double dx = this.xs[i] - this.xs[j];
+        double dy = this.ys[i] - this.ys[j];
+        double r = Math.sqrt((dx*dx + dy*dy) / 10.0);
+        int t = (int) (r + 0.5);
+        return t < r ? t + 1 : t;
+    }
+}
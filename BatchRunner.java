@@ -0,0 +1,495 @@
+/*
+BatchRunner.java
+Runs the solver headless over a batch of TSPLIB instances, several runs each, and streams the statistics of every
+generation and every run as JSON Lines or CSV. Runs go on a bounded pool of threads, so a whole sweep keeps the machine busy.
+
+example usage:
+java BatchRunner -runs 5 -seed 1 -generations 200 -seconds 60 problems/pr1002.tsp solutions/pr1002.opt.tour problems/d493.tsp NONE
+*/
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class BatchRunner
+{
+    // the columns of the CSV output. Generation lines leave the run columns empty, and the other way around
+    static final String CSV_HEADER = "type,instance,run,seed,generation,best,average,optimum,gap,elapsed_ms,gens_per_sec";
+
+    // the options
+    int runs = 1;
+    long seed = 1;
+    // when runs stop. Without any of these they stop after the solver's MAX_GENERATION generations
+    int generations = -1;
+    long seconds = -1;
+    int stagnation = -1;
+    long stagnation_seconds = -1;
+    double target_gap = -1;
+    double diversity = -1;
+    int threads = Runtime.getRuntime().availableProcessors();
+    boolean csv = false;
+    String cache_dir = InstanceCache.DEFAULT_DIR;
+    // the solver's parameters
+    SolverConfig config = new SolverConfig();
+    // where each run keeps its checkpoint, or null for none, and whether runs carry on from the checkpoints they find there
+    String checkpoint_dir = null;
+    int checkpoint_interval = 10;
+    boolean resume = false;
+    // keep the populations and the instances' tables off the heap
+    boolean off_heap = false;
+    // set when a failed batch couldn't stop all of its runs, which may still be reading the instances' tables
+    volatile boolean runs_left_behind = false;
+    // where each run saves pictures of its fittest tour, or null for none, how often, in what format, and whether it also makes a GIF
+    String frame_dir = null;
+    int frame_interval = 10;
+    FrameExporter.Format frame_format = FrameExporter.Format.PNG;
+    boolean gif = false;
+    PrintStream out = System.out;
+
+    /*One instance of the batch, loaded once and shared by all its runs*/
+    static class Instance
+    {
+        String name;
+        DistanceOracle dist;
+        CandidateLists nearest;
+        // the length of the optimal tour, or -1 if we don't know it
+        int optimum = -1;
+        // where the cities go on a picture, only loaded when frames are saved
+        int[][] cities;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        // frames are drawn offscreen, there is never a screen to draw on
+        if (System.getProperty("java.awt.headless") == null)
+        {
+            System.setProperty("java.awt.headless", "true");
+        }
+        BatchRunner runner = new BatchRunner();
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "-runs":
+                    runner.runs = Integer.parseInt(args[++i]);
+                    break;
+                case "-seed":
+                    runner.seed = Long.parseLong(args[++i]);
+                    break;
+                case "-generations":
+                    runner.generations = Integer.parseInt(args[++i]);
+                    break;
+                case "-seconds":
+                    runner.seconds = Long.parseLong(args[++i]);
+                    break;
+                case "-stagnation":
+                    runner.stagnation = Integer.parseInt(args[++i]);
+                    break;
+                case "-stagnation-seconds":
+                    runner.stagnation_seconds = Long.parseLong(args[++i]);
+                    break;
+                case "-target-gap":
+                    runner.target_gap = Double.parseDouble(args[++i]);
+                    break;
+                case "-diversity":
+                    runner.diversity = Double.parseDouble(args[++i]);
+                    break;
+                case "-threads":
+                    runner.threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-format":
+                    runner.csv = args[++i].equals("csv");
+                    break;
+                case "-cache":
+                    runner.cache_dir = args[++i];
+                    break;
+                case "-nocache":
+                    runner.cache_dir = null;
+                    break;
+                case "-checkpoint":
+                    runner.checkpoint_dir = args[++i];
+                    break;
+                case "-checkpoint-every":
+                    runner.checkpoint_interval = Integer.parseInt(args[++i]);
+                    break;
+                case "-resume":
+                    runner.resume = true;
+                    break;
+                case "-offheap":
+                    runner.off_heap = true;
+                    break;
+                case "-frames":
+                    runner.frame_dir = args[++i];
+                    break;
+                case "-frame-every":
+                    runner.frame_interval = Integer.parseInt(args[++i]);
+                    break;
+                case "-frame-format":
+                    runner.frame_format = FrameExporter.Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "-gif":
+                    runner.gif = true;
+                    break;
+                case "-out":
+                    runner.out = new PrintStream(new FileOutputStream(args[++i]), false, "UTF-8");
+                    break;
+                default:
+                    int used = runner.config.parse(args, i);
+                    if (used > 0)
+                    {
+                        i += used - 1;
+                    }
+                    else
+                    {
+                        files.add(args[i]);
+                    }
+            }
+        }
+        if (files.isEmpty() || files.size() % 2 != 0)
+        {
+            System.out.println("usage: java BatchRunner [-runs n] [-seed s] [-generations g] [-seconds t] [-threads k] [-format jsonl|csv] [-out file]");
+            System.out.println("                        [-stagnation g] [-stagnation-seconds t] [-target-gap fraction] [-diversity floor]");
+            System.out.println("                        " + SolverConfig.USAGE.replace("\n", "\n                        "));
+            System.out.println("                        [-cache dir | -nocache] [-checkpoint dir] [-checkpoint-every g] [-resume] [-offheap]");
+            System.out.println("                        [-frames dir] [-frame-every g] [-frame-format png|svg|none] [-gif]");
+            System.out.println("                        <problemfile> <solutionfile, or NONE> [<problemfile> <solutionfile, or NONE> ...]");
+            System.exit(1);
+        }
+
+        try
+        {
+            runner.config.validate();
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+
+        // the instances' tables are shared by all the runs, so they live as long as the batch
+        OffHeap tables = runner.off_heap ? new OffHeap() : null;
+        try
+        {
+            List<Instance> instances = new ArrayList<Instance>();
+            for (int i = 0; i < files.size(); i += 2)
+            {
+                Instance instance = load(files.get(i), files.get(i+1), runner.cache_dir, runner.config.n_candidates, tables);
+                if (runner.frame_dir != null)
+                {
+                    instance.cities = TSP.load_cities(files.get(i));
+                }
+                instances.add(instance);
+            }
+            runner.run_all(instances);
+        }
+        finally
+        {
+            // freeing the tables under a run that is still going would crash the JVM, so then they are left to the exit
+            if (tables != null && !runner.runs_left_behind)
+            {
+                tables.close();
+            }
+        }
+        runner.out.close();
+    }
+
+    /*Moves the instance's distance matrix, if it has one, and its candidate lists into arena*/
+    static void move_off_heap(Instance instance, OffHeap arena)
+    {
+        if (instance.dist instanceof HalfMatrixDistances)
+        {
+            // rebuilt from the coordinates, rather than copied. The heap matrix is garbage once the instance lets go of it
+            instance.dist = new HalfMatrixDistances(((HalfMatrixDistances) instance.dist).source, arena);
+        }
+        else if (instance.dist instanceof MatrixDistances)
+        {
+            // an explicit matrix has no coordinates to rebuild from, so it's copied. The half matrix doesn't keep it,
+            // and neither may anything else, or -offheap would cost more heap than it saves
+            instance.dist = new HalfMatrixDistances(instance.dist, arena);
+        }
+        instance.nearest = instance.nearest.copy_to(arena);
+    }
+
+    /*Load an instance through the cache and, if there is one, its optimal tour*/
+    static Instance load(String problem_file_path, String solution_file_path, String cache_dir, int k)
+    {
+        return load(problem_file_path, solution_file_path, cache_dir, k, null);
+    }
+
+    /*The same, with the instance's tables moved into arena, unless it's null*/
+    static Instance load(String problem_file_path, String solution_file_path, String cache_dir, int k, OffHeap arena)
+    {
+        Instance instance = new Instance();
+        instance.name = TSP.instance_name(problem_file_path);
+        InstanceCache.Entry entry = TSP.load_instance(problem_file_path, cache_dir, k);
+        instance.dist = entry.dist;
+        instance.nearest = entry.nearest;
+        GeneticSolver solver = new GeneticSolver(instance.dist, instance.nearest);
+        if (!solution_file_path.equals("NONE"))
+        {
+            instance.optimum = solver.new Path(TSP.load_optimal_tour(solution_file_path)).length;
+        }
+        if (arena != null)
+        {
+            move_off_heap(instance, arena);
+            // the explicit weights are off the heap now, don't keep the originals around as well
+            entry.problem.weights = null;
+        }
+        return instance;
+    }
+
+    /*Do every run of every instance on the pool, and wait for them all*/
+    public void run_all(List<Instance> instances) throws Exception
+    {
+        if (this.csv)
+        {
+            this.emit(CSV_HEADER);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.threads));
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (Instance instance: instances)
+            {
+                for (int r = 0; r < this.runs; r++)
+                {
+                    int run = r;
+                    futures.add(executor.submit(() -> this.run(instance, run)));
+                }
+            }
+            try
+            {
+                for (Future<?> f: futures)
+                {
+                    f.get();
+                }
+            }
+            catch (Exception e)
+            {
+                // one run failed: stop the others, which notice the interrupt between generations, before giving up
+                for (Future<?> f: futures)
+                {
+                    f.cancel(true);
+                }
+                executor.shutdownNow();
+                if (!executor.awaitTermination(1, TimeUnit.MINUTES))
+                {
+                    this.runs_left_behind = true;
+                }
+                throw e;
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /*One run of the solver on an instance, reporting every generation and then the run as a whole*/
+    void run(Instance instance, int run)
+    {
+        // a run's populations live as long as it does
+        try (OffHeap arena = this.off_heap ? new OffHeap() : null)
+        {
+            this.run(instance, run, arena);
+        }
+    }
+
+    void run(Instance instance, int run, OffHeap arena)
+    {
+        GeneticSolver solver = new GeneticSolver(instance.dist, instance.nearest, this.config);
+        solver.set_off_heap(arena);
+        // the solver's threads, if it steps in parallel, go when the run does
+        try
+        {
+            this.run(instance, run, solver);
+        }
+        finally
+        {
+            solver.close();
+        }
+    }
+
+    void run(Instance instance, int run, GeneticSolver solver)
+    {
+        long run_seed = this.seed + run;
+        solver.set_seed(run_seed);
+        long start = System.nanoTime();
+        solver.set_termination(this.termination(instance, solver));
+
+        Checkpoint.Writer checkpoints = null;
+        FrameExporter frames = null;
+        // however the run ends, the writers get to finish, so the last checkpoint is saved and the GIF gets its trailer
+        try
+        {
+            if (this.checkpoint_dir != null)
+            {
+                File file = new File(this.checkpoint_dir, instance.name + "-run" + run + ".ckpt");
+                if (this.resume && file.isFile())
+                {
+                    try
+                    {
+                        solver.resume(Checkpoint.read(file));
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                checkpoints = new Checkpoint.Writer(file, this.checkpoint_interval);
+            }
+            if (solver.population == null)
+            {
+                solver.initialize();
+            }
+            if (this.frame_dir != null)
+            {
+                try
+                {
+                    frames = new FrameExporter(new File(this.frame_dir), instance.name + "-run" + run, instance.cities, this.frame_format, this.frame_interval, this.gif);
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+                frames.save(solver);
+            }
+
+            this.report(instance, run, run_seed, solver.get_generation(), solver.best_length(), solver.avg_fitness(), System.nanoTime() - start, -1);
+            while (solver.should_continue() && !Thread.currentThread().isInterrupted())
+            {
+                int generation = solver.get_generation();
+                solver.step();
+                if (solver.get_generation() == generation)
+                {
+                    // the deadline passed in the middle of the generation
+                    break;
+                }
+                if (checkpoints != null)
+                {
+                    checkpoints.after_step(solver);
+                }
+                if (frames != null)
+                {
+                    frames.after_step(solver);
+                }
+                this.report(instance, run, run_seed, solver.get_generation(), solver.best_length(), solver.avg_fitness(), System.nanoTime() - start, -1);
+            }
+            if (Thread.currentThread().isInterrupted())
+            {
+                // cancelled because another run failed, so there is no run to report
+                return;
+            }
+
+            long elapsed = System.nanoTime() - start;
+            double gens_per_sec = solver.get_generation() / (elapsed / 1e9);
+            this.report(instance, run, run_seed, solver.get_generation(), solver.best_length(), solver.avg_fitness(), elapsed, gens_per_sec);
+        }
+        finally
+        {
+            // after the report, so waiting for the last checkpoint and frames to be written doesn't count as solving time
+            if (checkpoints != null)
+            {
+                checkpoints.close();
+            }
+            if (frames != null)
+            {
+                frames.close(solver);
+            }
+        }
+    }
+
+    /*Stop as soon as any of the chosen policies says so*/
+    Termination termination(Instance instance, GeneticSolver solver)
+    {
+        Termination stop = null;
+        if (this.generations > 0)
+        {
+            stop = or(stop, Termination.max_generations(this.generations));
+        }
+        if (this.seconds > 0)
+        {
+            stop = or(stop, Termination.time_limit(this.seconds * 1000));
+        }
+        if (this.stagnation > 0)
+        {
+            stop = or(stop, Termination.stagnation(this.stagnation));
+        }
+        if (this.stagnation_seconds > 0)
+        {
+            stop = or(stop, Termination.stagnation_time(this.stagnation_seconds * 1000));
+        }
+        if (this.target_gap >= 0 && instance.optimum > 0)
+        {
+            stop = or(stop, Termination.target_gap(instance.optimum, this.target_gap));
+        }
+        if (this.diversity > 0)
+        {
+            stop = or(stop, Termination.diversity_floor(this.diversity));
+        }
+        return stop != null ? stop : Termination.max_generations(solver.MAX_GENERATION);
+    }
+
+    static Termination or(Termination a, Termination b)
+    {
+        return a == null ? b : a.or(b);
+    }
+
+    /*Writes one line of statistics. A negative gens_per_sec means this is a generation, otherwise it is the end of a run*/
+    void report(Instance instance, int run, long run_seed, int generation, int best, int average, long elapsed_nanos, double gens_per_sec)
+    {
+        boolean end_of_run = gens_per_sec >= 0;
+        String type = end_of_run ? "run" : "generation";
+        String gap = instance.optimum > 0 ? String.format(Locale.ROOT, "%.6f", (double) (best - instance.optimum) / instance.optimum) : null;
+        String elapsed = String.format(Locale.ROOT, "%.3f", elapsed_nanos / 1e6);
+        String rate = end_of_run ? String.format(Locale.ROOT, "%.3f", gens_per_sec) : null;
+        String optimum = instance.optimum > 0 ? Integer.toString(instance.optimum) : null;
+
+        if (this.csv)
+        {
+            this.emit(type + "," + instance.name + "," + run + "," + run_seed + "," + generation + "," + best + "," + average + ","
+                + or_empty(optimum) + "," + or_empty(gap) + "," + elapsed + "," + or_empty(rate));
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"type\":\"").append(type).append("\"");
+        sb.append(",\"instance\":\"").append(instance.name.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"");
+        sb.append(",\"run\":").append(run);
+        sb.append(",\"seed\":").append(run_seed);
+        sb.append(",\"generation\":").append(generation);
+        sb.append(",\"best\":").append(best);
+        sb.append(",\"average\":").append(average);
+        sb.append(",\"optimum\":").append(optimum == null ? "null" : optimum);
+        sb.append(",\"gap\":").append(gap == null ? "null" : gap);
+        sb.append(",\"elapsed_ms\":").append(elapsed);
+        if (end_of_run)
+        {
+            sb.append(",\"gens_per_sec\":").append(rate);
+        }
+        sb.append("}");
+        this.emit(sb.toString());
+    }
+
+    static String or_empty(String s)
+    {
+        return s == null ? "" : s;
+    }
+
+    /*Lines from different runs never get mixed up, and each one goes out as soon as it's written*/
+    synchronized void emit(String line)
+    {
+        this.out.println(line);
+        this.out.flush();
+    }
+}
@@ -0,0 +1,166 @@
+/*
+CandidateLists.java
+The k nearest neighbors of every city, stored flat in one int array with stride k, closest first.
+copy_to() moves them off the heap, for instances big enough that the collector shouldn't have to see them.
+*/
+
+import java.nio.IntBuffer;
+
+public class CandidateLists
+{
+    // how many cities there are
+    final int n;
+    // how many neighbors each city has
+    final int k;
+    // neighbors of city c live in [c*k, c*k+k). null when they are off the heap, in direct instead
+    final int[] neighbors;
+    final IntBuffer direct;
+
+    /*Builds the lists with a k-d tree when the instance has coordinates, otherwise with a bounded heap per city*/
+    public CandidateLists(DistanceOracle dist, int k)
+    {
+        this.n = dist.size();
+        this.k = Math.max(0, Math.min(k, this.n-1));
+        this.neighbors = new int[this.n * this.k];
+        this.direct = null;
+
+        double[][] coords = dist.coordinates();
+        if (coords != null)
+        {
+            this.build_geometric(coords[0], coords[1]);
+        }
+        else
+        {
+            this.build_exhaustive(dist);
+        }
+    }
+
+    /*Wraps lists that were already computed, e.g. ones loaded from a cache*/
+    public CandidateLists(int n, int k, int[] neighbors)
+    {
+        if (neighbors.length != n*k)
+        {
+            throw new IllegalArgumentException("expected " + n*k + " neighbors but got " + neighbors.length);
+        }
+        this.n = n;
+        this.k = k;
+        this.neighbors = neighbors;
+        this.direct = null;
+    }
+
+    private CandidateLists(int n, int k, IntBuffer direct)
+    {
+        this.n = n;
+        this.k = k;
+        this.neighbors = null;
+        this.direct = direct;
+    }
+
+    /*The same lists, in memory from arena*/
+    public CandidateLists copy_to(OffHeap arena)
+    {
+        IntBuffer direct = arena.allocate_ints(this.n * this.k);
+        for (int i = 0; i < this.n * this.k; i++)
+        {
+            direct.put(i, this.get(i / this.k, i % this.k));
+        }
+        return new CandidateLists(this.n, this.k, direct);
+    }
+
+    public int size()
+    {
+        return this.n;
+    }
+
+    public int k()
+    {
+        return this.k;
+    }
+
+    /*The rank-th nearest neighbor of city, where rank 0 is the closest*/
+    public int get(int city, int rank)
+    {
+        return this.neighbors != null ? this.neighbors[city*this.k + rank] : this.direct.get(city*this.k + rank);
+    }
+
+    /*O(n log n) on average, using a k-d tree over the coordinates*/
+    private void build_geometric(double[] xs, double[] ys)
+    {
+        KDTree tree = new KDTree(xs, ys);
+        KDTree.Search search = tree.new Search(this.k);
+        int[] found = new int[this.k];
+        for (int city = 0; city < this.n; city++)
+        {
+            tree.k_nearest(city, this.k, found, search);
+            System.arraycopy(found, 0, this.neighbors, city*this.k, this.k);
+        }
+    }
+
+    /*O(n^2 log k) but still only O(nk) memory, for instances that aren't in the plane*/
+    private void build_exhaustive(DistanceOracle dist)
+    {
+        // a max-heap of the best k so far, keyed by distance
+        int[] heap_cities = new int[this.k];
+        int[] heap_dists = new int[this.k];
+        for (int city = 0; city < this.n; city++)
+        {
+            int size = 0;
+            for (int other = 0; other < this.n; other++)
+            {
+                if (other == city)
+                {
+                    continue;
+                }
+                int d = dist.dist(city, other);
+                if (size < this.k)
+                {
+                    int i = size++;
+                    while (i > 0 && heap_dists[(i-1)/2] < d)
+                    {
+                        heap_dists[i] = heap_dists[(i-1)/2];
+                        heap_cities[i] = heap_cities[(i-1)/2];
+                        i = (i-1)/2;
+                    }
+                    heap_dists[i] = d;
+                    heap_cities[i] = other;
+                }
+                else if (d < heap_dists[0])
+                {
+                    sift_down(heap_cities, heap_dists, size, other, d);
+                }
+            }
+            // pop the heap from the back so the closest ends up first
+            for (int i = size-1; i >= 0; i--)
+            {
+                this.neighbors[city*this.k + i] = heap_cities[0];
+                if (i > 0)
+                {
+                    sift_down(heap_cities, heap_dists, i, heap_cities[i], heap_dists[i]);
+                }
+            }
+        }
+    }
+
+    /*Replace the top of a max-heap of the given size and restore the heap order*/
+    private static void sift_down(int[] cities, int[] dists, int size, int city, int d)
+    {
+        int i = 0;
+        while (2*i+1 < size)
+        {
+            int child = 2*i+1;
+            if (child+1 < size && dists[child+1] > dists[child])
+            {
+                child++;
+            }
+            if (dists[child] <= d)
+            {
+                break;
+            }
+            dists[i] = dists[child];
+            cities[i] = cities[child];
+            i = child;
+        }
+        dists[i] = d;
+        cities[i] = city;
+    }
+}
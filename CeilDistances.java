@@ -0,0 +1,19 @@
+/*
+CeilDistances.java
+TSPLIB's CEIL_2D distances: Euclidean distances rounded up instead of to the nearest integer
+*/
+
+public class CeilDistances extends EuclideanDistances
+{
+    public CeilDistances(double[] xs, double[] ys)
+    {
+        super(xs, ys);
+    }
+
+    public int dist(int i, int j)
+    {
+        double dx = this.xs[i] - this.xs[j];
+        double dy = this.ys[i] - this.ys[j];
+        return (int) Math.ceil(Math.sqrt(dx*dx + dy*dy));
+    }
+}
@@ -0,0 +1,331 @@
+/*
+Checkpoint.java
+The whole state of a GeneticSolver run at the start of a generation: its parameters, its seed and generation number
+(which is all of its random state), the tours of its population, and the best tour of the run so far, which may be
+long gone from the population. Made by GeneticSolver.checkpoint() and taken up again by
+GeneticSolver.resume(). Checkpoints are written in a compact binary form: tours take 2 bytes a city when the instance has
+at most 65536 cities, and a CRC32 at the end catches files that were cut short or damaged.
+A Writer saves them on a background thread, so the solver doesn't wait for the disk.
+
+layout, all big endian:
+int magic, int version, int n, int popsize, int generation, long seed, int max_generation, double mutation_rate,
+int sample_size, double parent_ratio, double persist_ratio, int n_candidates, int mutation, double local_search_ratio,
+long local_search_budget, int local_search_kind, int selection, double rank_pressure, int crossover, int dedup,
+double immigration_entropy, double immigration_ratio, int seeding, double seeding_ratio, int best_length, n ints of the best tour,
+popsize ints of lengths, popsize*n cities, int CRC32 of everything before it
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+public class Checkpoint
+{
+    static final int MAGIC = 0x5453504b; // "TSPK"
+    // the only layout we read, anything else is refused
+    static final int VERSION = 5;
+    // the bytes before the best tour
+    static final int HEADER_SIZE = 140;
+
+    int n;
+    int generation;
+    long seed;
+    int max_generation;
+    double mutation_rate;
+    int popsize;
+    int sample_size;
+    double parent_ratio;
+    double persist_ratio;
+    int n_candidates;
+    GeneticSolver.Mutation mutation;
+    double local_search_ratio;
+    long local_search_budget;
+    TourImprover.Kind local_search_kind;
+    Selection.Kind selection;
+    double rank_pressure;
+    Crossover.Kind crossover;
+    boolean dedup;
+    double immigration_entropy;
+    double immigration_ratio;
+    Seeding.Kind seeding;
+    double seeding_ratio;
+    // the best tour of any generation so far
+    int best_length;
+    int[] best;
+    // the tours one after the other, tour i in [i*n, i*n+n)
+    int[] tours;
+    int[] lengths;
+
+    public int get_generation()
+    {
+        return this.generation;
+    }
+
+    /*Whether tours fit in 2 bytes a city*/
+    private static boolean is_short(int n)
+    {
+        return n <= 65536;
+    }
+
+    /*Writes to a temporary file and moves it over file, so a crash mid write never destroys the last good checkpoint*/
+    public void write(File file) throws IOException
+    {
+        int city_bytes = is_short(this.n) ? 2 : 4;
+        long size = HEADER_SIZE + 4L * this.n + 4L * this.popsize + (long) city_bytes * this.tours.length + 4;
+        if (size > Integer.MAX_VALUE)
+        {
+            throw new IOException("checkpoint too big: " + size + " bytes");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(this.n);
+        buf.putInt(this.popsize);
+        buf.putInt(this.generation);
+        buf.putLong(this.seed);
+        buf.putInt(this.max_generation);
+        buf.putDouble(this.mutation_rate);
+        buf.putInt(this.sample_size);
+        buf.putDouble(this.parent_ratio);
+        buf.putDouble(this.persist_ratio);
+        buf.putInt(this.n_candidates);
+        buf.putInt(this.mutation.ordinal());
+        buf.putDouble(this.local_search_ratio);
+        buf.putLong(this.local_search_budget);
+        buf.putInt(this.local_search_kind.ordinal());
+        buf.putInt(this.selection.ordinal());
+        buf.putDouble(this.rank_pressure);
+        buf.putInt(this.crossover.ordinal());
+        buf.putInt(this.dedup ? 1 : 0);
+        buf.putDouble(this.immigration_entropy);
+        buf.putDouble(this.immigration_ratio);
+        buf.putInt(this.seeding.ordinal());
+        buf.putDouble(this.seeding_ratio);
+        buf.putInt(this.best_length);
+        buf.asIntBuffer().put(this.best);
+        buf.position(buf.position() + 4 * this.n);
+        for (int length: this.lengths)
+        {
+            buf.putInt(length);
+        }
+        if (city_bytes == 2)
+        {
+            for (int city: this.tours)
+            {
+                buf.putShort((short) city);
+            }
+        }
+        else
+        {
+            buf.asIntBuffer().put(this.tours);
+            buf.position(buf.position() + 4 * this.tours.length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), 0, buf.position());
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try
+        {
+            try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE))
+            {
+                while (buf.hasRemaining())
+                {
+                    channel.write(buf);
+                }
+                channel.force(false);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+    public static Checkpoint read(File file) throws IOException
+    {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.limit() < HEADER_SIZE + 4 || buf.getInt(0) != MAGIC)
+        {
+            throw new IOException(file + " is not a checkpoint");
+        }
+        int version = buf.getInt(4);
+        if (version != VERSION)
+        {
+            throw new IOException(file + " is a checkpoint of version " + version + ", we only read version " + VERSION);
+        }
+        int body = buf.limit() - 4;
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().position(0).limit(body));
+        if ((int) crc.getValue() != buf.getInt(body))
+        {
+            throw new IOException(file + " is damaged, its checksum doesn't match");
+        }
+
+        Checkpoint c = new Checkpoint();
+        buf.position(8);
+        c.n = buf.getInt();
+        c.popsize = buf.getInt();
+        c.generation = buf.getInt();
+        c.seed = buf.getLong();
+        c.max_generation = buf.getInt();
+        c.mutation_rate = buf.getDouble();
+        c.sample_size = buf.getInt();
+        c.parent_ratio = buf.getDouble();
+        c.persist_ratio = buf.getDouble();
+        c.n_candidates = buf.getInt();
+        c.mutation = GeneticSolver.Mutation.values()[buf.getInt()];
+        c.local_search_ratio = buf.getDouble();
+        c.local_search_budget = buf.getLong();
+        c.local_search_kind = TourImprover.Kind.values()[buf.getInt()];
+        c.selection = Selection.Kind.values()[buf.getInt()];
+        c.rank_pressure = buf.getDouble();
+        c.crossover = Crossover.Kind.values()[buf.getInt()];
+        c.dedup = buf.getInt() != 0;
+        c.immigration_entropy = buf.getDouble();
+        c.immigration_ratio = buf.getDouble();
+        c.seeding = Seeding.Kind.values()[buf.getInt()];
+        c.seeding_ratio = buf.getDouble();
+        c.best_length = buf.getInt();
+
+        int city_bytes = is_short(c.n) ? 2 : 4;
+        if (body - HEADER_SIZE != 4L * c.n + 4L * c.popsize + (long) city_bytes * c.popsize * c.n)
+        {
+            throw new IOException(file + " has the wrong size for " + c.popsize + " tours of " + c.n + " cities");
+        }
+        c.best = new int[c.n];
+        buf.asIntBuffer().get(c.best);
+        buf.position(buf.position() + 4 * c.n);
+        c.lengths = new int[c.popsize];
+        buf.asIntBuffer().get(c.lengths);
+        buf.position(buf.position() + 4 * c.popsize);
+        c.tours = new int[c.popsize * c.n];
+        if (city_bytes == 2)
+        {
+            for (int i = 0; i < c.tours.length; i++)
+            {
+                c.tours[i] = buf.getShort() & 0xffff;
+            }
+        }
+        else
+        {
+            buf.asIntBuffer().get(c.tours);
+        }
+        c.check_tours();
+        return c;
+    }
+
+    /*Every tour has to visit every city once, or the solver would go wrong in strange ways later*/
+    private void check_tours() throws IOException
+    {
+        int[] seen = new int[this.n];
+        for (int city: this.best)
+        {
+            if (city < 0 || city >= this.n || seen[city] == -1)
+            {
+                throw new IOException("the best tour of the checkpoint isn't a permutation");
+            }
+            seen[city] = -1;
+        }
+        for (int i = 0; i < this.popsize; i++)
+        {
+            for (int j = i * this.n; j < (i+1) * this.n; j++)
+            {
+                int city = this.tours[j];
+                if (city < 0 || city >= this.n || seen[city] == i+1)
+                {
+                    throw new IOException("tour " + i + " of the checkpoint isn't a permutation");
+                }
+                seen[city] = i+1;
+            }
+        }
+    }
+
+    /*Saves checkpoints on a background thread. If the disk is slower than the solver, only the newest waiting checkpoint gets written*/
+    public static class Writer
+    {
+        final File file;
+        // save every this many generations
+        final int interval;
+        // the newest checkpoint that hasn't been written yet
+        final AtomicReference<Checkpoint> pending = new AtomicReference<Checkpoint>();
+        final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint writer");
+            t.setDaemon(true);
+            return t;
+        });
+
+        public Writer(File file, int interval)
+        {
+            this.file = file;
+            this.interval = Math.max(1, interval);
+        }
+
+        /*Call this once a generation. Copies the solver's state when a checkpoint is due, and queues it for writing*/
+        public void after_step(GeneticSolver solver)
+        {
+            if (solver.get_generation() % this.interval == 0)
+            {
+                this.save(solver);
+            }
+        }
+
+        public void save(GeneticSolver solver)
+        {
+            // only queue a write if there isn't one waiting already, it will pick up the newest checkpoint
+            if (this.pending.getAndSet(solver.checkpoint()) == null)
+            {
+                this.thread.execute(this::write_pending);
+            }
+        }
+
+        private void write_pending()
+        {
+            Checkpoint c = this.pending.getAndSet(null);
+            if (c == null)
+            {
+                return;
+            }
+            try
+            {
+                c.write(this.file);
+            }
+            catch (IOException e)
+            {
+                System.err.println("could not write checkpoint " + this.file + ": " + e.getMessage());
+            }
+        }
+
+        /*Wait for the writes that are still queued*/
+        public void close()
+        {
+            this.thread.shutdown();
+            try
+            {
+                this.thread.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
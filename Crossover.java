@@ -0,0 +1,27 @@
+/*
+Crossover.java
+Something that breeds a child tour from two parent tours. Implementations keep scratch space, so every thread needs its own
+*/
+
+import java.util.SplittableRandom;
+
+public interface Crossover
+{
+    /*The kinds of crossover the solver knows how to make*/
+    public enum Kind
+    {
+        // Nearest Neighbor Crossover: the NNA over the union of the parents, see GeneticSolver.Graph
+        NNX,
+        // Edge Assembly Crossover, see EdgeAssemblyCrossover
+        EAX;
+
+        public Crossover make(GeneticSolver solver)
+        {
+            return this == NNX ? solver.scratch.get() : new EdgeAssemblyCrossover(solver.dist, solver.nearest);
+        }
+    }
+
+    /*Breed the tours t1[base1, base1+n), whose length is length1, and t2[base2, base2+n) into child[base, base+n).
+    Returns the child's length*/
+    public int cross(int[] t1, int base1, int length1, int[] t2, int base2, int[] child, int base, SplittableRandom rng);
+}
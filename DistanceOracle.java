@@ -0,0 +1,19 @@
+/*
+DistanceOracle.java
+Answers distance queries between cities, so that the solver doesn't have to hold a full n by n matrix in memory
+*/
+
+public interface DistanceOracle
+{
+    /*How many cities there are*/
+    public int size();
+
+    /*The distance between cities i and j, rounded to an integer like TSPLIB does*/
+    public int dist(int i, int j);
+
+    /*The {xs, ys} coordinates of the cities, or null if this instance isn't laid out in the plane*/
+    public default double[][] coordinates()
+    {
+        return null;
+    }
+}
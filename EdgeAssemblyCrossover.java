@@ -0,0 +1,472 @@
+/*
+EdgeAssemblyCrossover.java
+Nagata's Edge Assembly Crossover, in its single AB-cycle form. The edges that are in one parent but not the other split into
+AB-cycles, which alternate between an edge of A and an edge of B. Swapping the A edges of one AB-cycle for its B edges turns
+A into a set of subtours that only differs from A locally. Those get merged back into one tour, smallest first, by the cheapest
+exchange of one edge of the subtour with one edge leading to a candidate neighbor outside it. Unlike the NNA, the child keeps
+almost every edge of its parents, and never has to fall back to a long edge from a scan of every city.
+Each child tries a few AB-cycles and keeps the shortest result. Changes are logged and undone between tries, and all the scratch
+space is allocated once, so breeding doesn't allocate. Every thread needs its own.
+*/
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class EdgeAssemblyCrossover implements Crossover
+{
+    // how many AB-cycles each child tries, keeping the best
+    static final int TRIES = 5;
+
+    final DistanceOracle dist;
+    final CandidateLists nearest;
+    final int n;
+
+    // the child as it is being assembled: the two neighbors of city c are adj[2c] and adj[2c+1]
+    final int[] adj;
+    // the neighbors of each city in B
+    final int[] b_adj;
+    // the edges of A that B doesn't have, and the other way around, that no AB-cycle has used yet
+    final int[] a_only;
+    final int[] a_count;
+    final int[] b_only;
+    final int[] b_count;
+    // the cities that have edges in only one parent
+    final int[] touched;
+    int touched_count;
+
+    // the alternating walk that AB-cycles get cut from, and for every city and parity, where it is on the walk or -1
+    final int[] walk;
+    final int[] on_walk;
+    // the AB-cycles, each a list of cities whose first edge is one of A's: cycles[cycle_start[i], cycle_start[i+1])
+    final int[] cycles;
+    final int[] cycle_start;
+    int n_cycles;
+    final int[] picks;
+
+    // which subtour each city is on, and how big the subtours are
+    final int[] label;
+    final int[] subtour_size;
+    final int[] members;
+
+    // the changes made to adj since the last undo: the slot and what was in it
+    int[] log_slot;
+    int[] log_old;
+    int log_size;
+
+    public EdgeAssemblyCrossover(DistanceOracle dist, CandidateLists nearest)
+    {
+        this.dist = dist;
+        this.nearest = nearest;
+        this.n = dist.size();
+        this.adj = new int[2 * this.n];
+        this.b_adj = new int[2 * this.n];
+        this.a_only = new int[2 * this.n];
+        this.a_count = new int[this.n];
+        this.b_only = new int[2 * this.n];
+        this.b_count = new int[this.n];
+        this.touched = new int[this.n];
+        this.walk = new int[2 * this.n + 1];
+        this.on_walk = new int[2 * this.n];
+        Arrays.fill(this.on_walk, -1);
+        this.cycles = new int[2 * this.n];
+        this.cycle_start = new int[this.n + 1];
+        this.picks = new int[this.n];
+        this.label = new int[this.n];
+        this.subtour_size = new int[this.n];
+        this.members = new int[this.n];
+        this.log_slot = new int[8 * this.n];
+        this.log_old = new int[8 * this.n];
+    }
+
+    public int cross(int[] t1, int base1, int length1, int[] t2, int base2, int[] child, int base, SplittableRandom rng)
+    {
+        if (this.n < 5)
+        {
+            System.arraycopy(t1, base1, child, base, this.n);
+            return length1;
+        }
+        this.load(t1, base1, t2, base2);
+        this.decompose(rng);
+
+        // try a few of the AB-cycles, each on a fresh copy of A
+        int tries = Math.min(TRIES, this.n_cycles);
+        for (int i = 0; i < this.n_cycles; i++)
+        {
+            this.picks[i] = i;
+        }
+        int best_cycle = -1;
+        int best_delta = Integer.MAX_VALUE;
+        for (int t = 0; t < tries; t++)
+        {
+            int j = t + rng.nextInt(this.n_cycles - t);
+            int cycle = this.picks[j];
+            this.picks[j] = this.picks[t];
+            this.picks[t] = cycle;
+
+            int delta = this.apply(cycle);
+            delta += this.merge_subtours();
+            if (delta < best_delta)
+            {
+                best_delta = delta;
+                best_cycle = cycle;
+            }
+            this.undo();
+        }
+        if (best_cycle == -1)
+        {
+            // the parents are the same tour
+            System.arraycopy(t1, base1, child, base, this.n);
+            return length1;
+        }
+        // redo the best one, which comes out the same since merging doesn't draw any random numbers
+        this.apply(best_cycle);
+        this.merge_subtours();
+        this.log_size = 0;
+
+        int start = t1[base1];
+        int prev = start;
+        int city = this.adj[2*start];
+        child[base] = start;
+        for (int i = 1; i < this.n; i++)
+        {
+            child[base + i] = city;
+            int next = this.adj[2*city] == prev ? this.adj[2*city + 1] : this.adj[2*city];
+            prev = city;
+            city = next;
+        }
+        return length1 + best_delta;
+    }
+
+    /*Set adj to A, and find the edges that only one of the parents has*/
+    private void load(int[] t1, int base1, int[] t2, int base2)
+    {
+        int n = this.n;
+        for (int i = 0; i < n; i++)
+        {
+            int a = t1[base1 + i];
+            this.adj[2*a] = t1[base1 + (i == 0 ? n - 1 : i - 1)];
+            this.adj[2*a + 1] = t1[base1 + (i == n - 1 ? 0 : i + 1)];
+            int b = t2[base2 + i];
+            this.b_adj[2*b] = t2[base2 + (i == 0 ? n - 1 : i - 1)];
+            this.b_adj[2*b + 1] = t2[base2 + (i == n - 1 ? 0 : i + 1)];
+        }
+        int n_touched = 0;
+        for (int c = 0; c < n; c++)
+        {
+            int a0 = this.adj[2*c], a1 = this.adj[2*c + 1];
+            int b0 = this.b_adj[2*c], b1 = this.b_adj[2*c + 1];
+            int na = 0, nb = 0;
+            if (a0 != b0 && a0 != b1)
+            {
+                this.a_only[2*c + na++] = a0;
+            }
+            if (a1 != b0 && a1 != b1)
+            {
+                this.a_only[2*c + na++] = a1;
+            }
+            if (b0 != a0 && b0 != a1)
+            {
+                this.b_only[2*c + nb++] = b0;
+            }
+            if (b1 != a0 && b1 != a1)
+            {
+                this.b_only[2*c + nb++] = b1;
+            }
+            this.a_count[c] = na;
+            this.b_count[c] = nb;
+            if (na > 0)
+            {
+                this.touched[n_touched++] = c;
+            }
+        }
+        this.cycle_start[0] = 0;
+        this.n_cycles = 0;
+        this.touched_count = n_touched;
+    }
+
+    /*Split the edges that only one parent has into AB-cycles: walk from city to city taking an A edge, then a B edge, and so on,
+    picking at random when there are two, and cut a cycle off the walk whenever it comes back to a city it left by the other kind of edge*/
+    private void decompose(SplittableRandom rng)
+    {
+        if (this.touched_count == 0)
+        {
+            return;
+        }
+        int offset = rng.nextInt(this.touched_count);
+        for (int t = 0; t < this.touched_count; t++)
+        {
+            int start = this.touched[(offset + t) % this.touched_count];
+            while (this.a_count[start] > 0)
+            {
+                this.walk_from(start, rng);
+            }
+        }
+    }
+
+    private void walk_from(int start, SplittableRandom rng)
+    {
+        int[] walk = this.walk;
+        int length = 0;
+        walk[0] = start;
+        this.on_walk[2*start] = 0;
+        while (true)
+        {
+            int city = walk[length];
+            // even steps take an edge of A, odd ones an edge of B
+            boolean a_edge = (length & 1) == 0;
+            int[] only = a_edge ? this.a_only : this.b_only;
+            int[] count = a_edge ? this.a_count : this.b_count;
+            if (count[city] == 0)
+            {
+                // only ever at the start, once its A edges are used up
+                assert length == 0 : "an alternating walk got stuck";
+                for (int i = 1; i <= length; i++)
+                {
+                    this.on_walk[2*walk[i] + (i & 1)] = -1;
+                }
+                break;
+            }
+            int next = only[2*city + (count[city] == 2 ? rng.nextInt(2) : 0)];
+            remove(only, count, city, next);
+            remove(only, count, next, city);
+            walk[++length] = next;
+
+            int parity = length & 1;
+            int earlier = this.on_walk[2*next + parity];
+            if (earlier < 0)
+            {
+                this.on_walk[2*next + parity] = length;
+                continue;
+            }
+            // walk[earlier, length] is an AB-cycle. Make it start with an A edge, which it does if earlier is even
+            int from = (earlier & 1) == 0 ? earlier : earlier + 1;
+            int to = (earlier & 1) == 0 ? length : length + 1;
+            int at = this.cycle_start[this.n_cycles];
+            for (int i = from; i < to; i++)
+            {
+                this.cycles[at++] = i == length ? walk[earlier] : walk[i];
+            }
+            this.cycle_start[++this.n_cycles] = at;
+            // and carry on from where the cycle started
+            for (int i = earlier + 1; i < length; i++)
+            {
+                this.on_walk[2*walk[i] + (i & 1)] = -1;
+            }
+            length = earlier;
+        }
+        this.on_walk[2*start] = -1;
+    }
+
+    private static void remove(int[] only, int[] count, int city, int other)
+    {
+        if (only[2*city] == other)
+        {
+            only[2*city] = only[2*city + 1];
+        }
+        count[city]--;
+    }
+
+    /*Swap the A edges of an AB-cycle for its B edges. Returns the change in length*/
+    private int apply(int cycle)
+    {
+        int from = this.cycle_start[cycle];
+        int to = this.cycle_start[cycle + 1];
+        int delta = 0;
+        for (int i = from; i < to; i += 2)
+        {
+            int a = this.cycles[i];
+            int b = this.cycles[i + 1];
+            this.replace(a, b, -1);
+            this.replace(b, a, -1);
+            delta -= this.dist.dist(a, b);
+        }
+        for (int i = from + 1; i < to; i += 2)
+        {
+            int a = this.cycles[i];
+            int b = this.cycles[i + 1 == to ? from : i + 1];
+            this.replace(a, -1, b);
+            this.replace(b, -1, a);
+            delta += this.dist.dist(a, b);
+        }
+        return delta;
+    }
+
+    /*Join the subtours into one tour, always merging the smallest into another by the cheapest 2-opt style exchange
+    with a candidate neighbor of one of its cities. Returns the change in length*/
+    private int merge_subtours()
+    {
+        int delta = 0;
+        int subtours = this.label_subtours();
+        while (subtours > 1)
+        {
+            int smallest = 0;
+            for (int s = 1; s < subtours; s++)
+            {
+                if (this.subtour_size[s] < this.subtour_size[smallest])
+                {
+                    smallest = s;
+                }
+            }
+            int size = 0;
+            for (int c = 0; c < this.n; c++)
+            {
+                if (this.label[c] == smallest)
+                {
+                    this.members[size++] = c;
+                }
+            }
+
+            // remove (u, u2) and (v, v2), and add (u, v) and (u2, v2), or crossed, (u, v2) and (u2, v)
+            int best = Integer.MAX_VALUE;
+            int best_u = -1, best_u2 = -1, best_v = -1, best_v2 = -1;
+            boolean crossed = false;
+            for (int m = 0; m < size; m++)
+            {
+                int u = this.members[m];
+                for (int rank = 0; rank < this.nearest.k(); rank++)
+                {
+                    int v = this.nearest.get(u, rank);
+                    if (this.label[v] == smallest)
+                    {
+                        continue;
+                    }
+                    int uv = this.dist.dist(u, v);
+                    for (int s = 0; s < 2; s++)
+                    {
+                        int u2 = this.adj[2*u + s];
+                        int uu2 = this.dist.dist(u, u2);
+                        for (int t = 0; t < 2; t++)
+                        {
+                            int v2 = this.adj[2*v + t];
+                            int removed = uu2 + this.dist.dist(v, v2);
+                            int straight = uv + this.dist.dist(u2, v2) - removed;
+                            int cross = this.dist.dist(u, v2) + this.dist.dist(u2, v) - removed;
+                            if (straight < best)
+                            {
+                                best = straight;
+                                best_u = u; best_u2 = u2; best_v = v; best_v2 = v2;
+                                crossed = false;
+                            }
+                            if (cross < best)
+                            {
+                                best = cross;
+                                best_u = u; best_u2 = u2; best_v = v; best_v2 = v2;
+                                crossed = true;
+                            }
+                        }
+                    }
+                }
+            }
+            if (best_u == -1)
+            {
+                // every candidate of the subtour is on it too, so join its first city to the nearest city off it
+                int u = this.members[0];
+                int d = Integer.MAX_VALUE;
+                for (int c = 0; c < this.n; c++)
+                {
+                    if (this.label[c] != smallest && this.dist.dist(u, c) < d)
+                    {
+                        d = this.dist.dist(u, c);
+                        best_v = c;
+                    }
+                }
+                best_u = u;
+                best_u2 = this.adj[2*u];
+                best_v2 = this.adj[2*best_v];
+                best = d + this.dist.dist(best_u2, best_v2) - this.dist.dist(u, best_u2) - this.dist.dist(best_v, best_v2);
+                crossed = false;
+            }
+
+            int u = best_u, u2 = best_u2, v = best_v, v2 = best_v2;
+            if (!crossed)
+            {
+                this.replace(u, u2, v);
+                this.replace(u2, u, v2);
+                this.replace(v, v2, u);
+                this.replace(v2, v, u2);
+            }
+            else
+            {
+                this.replace(u, u2, v2);
+                this.replace(u2, u, v);
+                this.replace(v, v2, u2);
+                this.replace(v2, v, u);
+            }
+            delta += best;
+
+            // the smallest subtour is now part of v's, and the last label takes the place of the one that is gone
+            int into = this.label[v];
+            for (int m = 0; m < size; m++)
+            {
+                this.label[this.members[m]] = into;
+            }
+            this.subtour_size[into] += size;
+            int last = --subtours;
+            if (smallest != last)
+            {
+                for (int c = 0; c < this.n; c++)
+                {
+                    if (this.label[c] == last)
+                    {
+                        this.label[c] = smallest;
+                    }
+                }
+                this.subtour_size[smallest] = this.subtour_size[last];
+            }
+        }
+        return delta;
+    }
+
+    /*Number the subtours of adj from 0, and count their cities. Returns how many there are*/
+    private int label_subtours()
+    {
+        Arrays.fill(this.label, -1);
+        int subtours = 0;
+        for (int c = 0; c < this.n; c++)
+        {
+            if (this.label[c] != -1)
+            {
+                continue;
+            }
+            int size = 0;
+            int prev = -1;
+            int city = c;
+            do
+            {
+                this.label[city] = subtours;
+                size++;
+                int next = this.adj[2*city] == prev ? this.adj[2*city + 1] : this.adj[2*city];
+                prev = city;
+                city = next;
+            }
+            while (city != c);
+            this.subtour_size[subtours++] = size;
+        }
+        return subtours;
+    }
+
+    /*Change the neighbor of city that is old to new, logging it so it can be undone*/
+    private void replace(int city, int old, int now)
+    {
+        int slot = this.adj[2*city] == old ? 2*city : 2*city + 1;
+        assert this.adj[slot] == old : "city " + city + " has no neighbor " + old;
+        if (this.log_size == this.log_slot.length)
+        {
+            this.log_slot = Arrays.copyOf(this.log_slot, 2 * this.log_size);
+            this.log_old = Arrays.copyOf(this.log_old, 2 * this.log_size);
+        }
+        this.log_slot[this.log_size] = slot;
+        this.log_old[this.log_size++] = old;
+        this.adj[slot] = now;
+    }
+
+    /*Put adj back to A*/
+    private void undo()
+    {
+        while (this.log_size > 0)
+        {
+            this.log_size--;
+            this.adj[this.log_slot[this.log_size]] = this.log_old[this.log_size];
+        }
+    }
+}
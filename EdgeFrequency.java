@@ -0,0 +1,142 @@
+/*
+EdgeFrequency.java
+How many tours of a population use each edge, in an open addressing table keyed by the edge, which grows as it needs to and
+is reused from one count to the next. From the counts comes the edge entropy of the population, the measure of diversity
+EAX papers use: -sum over the edges of f log f, where f is the fraction of the tours that have the edge. Divided by its
+largest value, n log popsize when no two tours share an edge, it goes from 1 for a population of strangers down to 0
+for one where every tour is the same.
+*/
+
+import java.util.Arrays;
+
+public class EdgeFrequency
+{
+    // the edges as min << 32 | max, and how many tours have them. A slot is taken if its count is above 0
+    long[] edges;
+    int[] counts;
+    int mask;
+    // how many different edges the last count found, and in how many tours
+    int distinct;
+    int tours;
+    int n;
+
+    /*A table with room for the edges of a converged population of n cities to start with*/
+    public EdgeFrequency(int n)
+    {
+        this.allocate(Integer.highestOneBit(Math.max(2, 4*n - 1)) << 1);
+    }
+
+    private void allocate(int size)
+    {
+        this.edges = new long[size];
+        this.counts = new int[size];
+        this.mask = size - 1;
+        this.distinct = 0;
+    }
+
+    /*Count the edges of every tour of pop, forgetting the last count*/
+    public void count(Population pop, int[] scratch)
+    {
+        Arrays.fill(this.counts, 0);
+        this.distinct = 0;
+        this.tours = pop.size();
+        this.n = pop.n;
+        for (int i = 0; i < pop.size(); i++)
+        {
+            int[] tour = pop.tours;
+            int base = pop.base(i);
+            if (!pop.on_heap())
+            {
+                pop.read(i, scratch, 0);
+                tour = scratch;
+                base = 0;
+            }
+            this.add(tour[base + this.n - 1], tour[base]);
+            for (int j = base; j < base + this.n - 1; j++)
+            {
+                this.add(tour[j], tour[j+1]);
+            }
+        }
+    }
+
+    private void add(int a, int b)
+    {
+        long edge = a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+        int slot = this.slot(edge);
+        if (this.counts[slot] == 0)
+        {
+            this.edges[slot] = edge;
+            this.distinct++;
+            // keep the table at most half full
+            if (2 * this.distinct > this.edges.length)
+            {
+                this.counts[slot] = 1;
+                this.grow();
+                return;
+            }
+        }
+        this.counts[slot]++;
+    }
+
+    /*Where edge is, or the empty slot it would go in*/
+    private int slot(long edge)
+    {
+        long z = edge * 0x9E3779B97F4A7C15L;
+        int slot = (int) (z >>> 32) & this.mask;
+        while (this.counts[slot] != 0 && this.edges[slot] != edge)
+        {
+            slot = (slot + 1) & this.mask;
+        }
+        return slot;
+    }
+
+    private void grow()
+    {
+        long[] edges = this.edges;
+        int[] counts = this.counts;
+        int distinct = this.distinct;
+        this.allocate(2 * edges.length);
+        for (int i = 0; i < edges.length; i++)
+        {
+            if (counts[i] != 0)
+            {
+                int slot = this.slot(edges[i]);
+                this.edges[slot] = edges[i];
+                this.counts[slot] = counts[i];
+            }
+        }
+        this.distinct = distinct;
+    }
+
+    /*How many tours of the last count have the edge between a and b*/
+    public int frequency(int a, int b)
+    {
+        long edge = a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+        return this.counts[this.slot(edge)];
+    }
+
+    /*How many different edges the last count found*/
+    public int distinct()
+    {
+        return this.distinct;
+    }
+
+    /*The edge entropy of the last count, divided by the most it could be, so between 0 and 1*/
+    public double entropy()
+    {
+        if (this.tours < 2)
+        {
+            return 0;
+        }
+        double sum = 0;
+        for (int count: this.counts)
+        {
+            if (count != 0)
+            {
+                double f = (double) count / this.tours;
+                sum -= f * Math.log(f);
+            }
+        }
+        return sum / (this.n * Math.log(this.tours));
+    }
+}
@@ -0,0 +1,47 @@
+/*
+EuclideanDistances.java
+Computes EUC_2D distances on the fly from the city coordinates, so memory only grows linearly with the number of cities
+*/
+
+public class EuclideanDistances implements DistanceOracle
+{
+    // the coordinates of the cities, kept in two flat arrays so lookups stay cache friendly
+    final double[] xs;
+    final double[] ys;
+
+    public EuclideanDistances(int[][] cities)
+    {
+        int n = cities.length;
+        this.xs = new double[n];
+        this.ys = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            this.xs[i] = cities[i][0];
+            this.ys[i] = cities[i][1];
+        }
+    }
+
+    public EuclideanDistances(double[] xs, double[] ys)
+    {
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    public int size()
+    {
+        return this.xs.length;
+    }
+
+    public double[][] coordinates()
+    {
+        return new double[][] {this.xs, this.ys};
+    }
+
+    public int dist(int i, int j)
+    {
+        double dx = this.xs[i] - this.xs[j];
+        double dy = this.ys[i] - this.ys[j];
+        // TSPLIB's nint(), which is what Math.round does for nonnegative numbers
+        return (int) (Math.sqrt(dx*dx + dy*dy) + 0.5);
+    }
+}
@@ -0,0 +1,344 @@
+/*
+FrameExporter.java
+Saves pictures of a run's fittest tour as it evolves, without a screen: a PNG or SVG file for every few generations,
+and if asked for, an animated GIF of the whole run. It draws with plain Java2D on an offscreen image, so it works with
+java.awt.headless=true, on servers where Plotter can't open its window.
+The solver only copies the fittest tour into a queue every few generations. The frames get drawn and written on a background
+thread, which takes whatever has queued up since it last looked and writes it all in one go. If the queue fills up because
+the disk can't keep up, frames are dropped rather than making the solver wait, and close() says how many.
+
+files, in dir: <name>-g<generation>.png (or .svg) for every frame, and <name>.gif for the animation
+*/
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+public class FrameExporter
+{
+    /*What every frame is saved as, besides the GIF*/
+    public enum Format
+    {
+        PNG,
+        SVG,
+        // only the GIF
+        NONE
+    }
+
+    // the size of a frame, the same as Plotter's window
+    static final int SIZE = 700;
+    static final int MARGIN = 20;
+    // how long each frame of the GIF shows, in hundredths of a second
+    static final int GIF_DELAY = 10;
+    // how many frames may wait to be written before new ones get dropped
+    static final int QUEUE_SIZE = 256;
+    // up to this many cities each one gets a dot, past it the dots would just cover the tour
+    static final int MAX_DOTS = 2000;
+    // queued by close() to tell the writer there is nothing more
+    static final TourChannel.Snapshot END = new TourChannel.Snapshot(-1, 0, null);
+
+    // white background, black tour, red cities
+    static final IndexColorModel PALETTE = new IndexColorModel(8, 3, new byte[] {-1, 0, -1}, new byte[] {-1, 0, 0}, new byte[] {-1, 0, 0});
+
+    final File dir;
+    final String name;
+    final Format format;
+    // save a frame every this many generations
+    final int interval;
+    // where each city goes on a frame, worked out once
+    final int[] xs;
+    final int[] ys;
+
+    final BlockingQueue<TourChannel.Snapshot> queue = new ArrayBlockingQueue<TourChannel.Snapshot>(QUEUE_SIZE);
+    final Thread thread;
+    // the generation of the last frame queued, so the last one isn't saved twice
+    int last_queued = -1;
+    volatile int dropped;
+
+    // only the writer thread touches these
+    final BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_BYTE_INDEXED, PALETTE);
+    final int[] px;
+    final int[] py;
+    ImageWriter gif;
+    ImageOutputStream gif_out;
+    int gif_frames;
+
+    /*Frames of the tours over cities ([x, y] coordinates, as TSP.cities_of gives them), saved in dir as name-...,
+    every interval generations, and also as an animated GIF if gif is true*/
+    public FrameExporter(File dir, String name, int[][] cities, Format format, int interval, boolean gif) throws IOException
+    {
+        Files.createDirectories(dir.toPath());
+        this.dir = dir;
+        this.name = name;
+        this.format = format;
+        this.interval = Math.max(1, interval);
+
+        // scale the cities to fit, keeping their proportions, with y going up
+        int n = cities.length;
+        long min_x = Long.MAX_VALUE, min_y = Long.MAX_VALUE, max_x = Long.MIN_VALUE, max_y = Long.MIN_VALUE;
+        for (int[] city: cities)
+        {
+            min_x = Math.min(min_x, city[0]);
+            max_x = Math.max(max_x, city[0]);
+            min_y = Math.min(min_y, city[1]);
+            max_y = Math.max(max_y, city[1]);
+        }
+        double scale = (SIZE - 2.0 * MARGIN) / Math.max(1, Math.max(max_x - min_x, max_y - min_y));
+        this.xs = new int[n];
+        this.ys = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            this.xs[i] = MARGIN + (int) Math.round((cities[i][0] - min_x) * scale);
+            this.ys[i] = SIZE - MARGIN - (int) Math.round((cities[i][1] - min_y) * scale);
+        }
+        this.px = new int[n + 1];
+        this.py = new int[n + 1];
+
+        if (gif)
+        {
+            this.gif = ImageIO.getImageWritersByFormatName("gif").next();
+            this.gif_out = ImageIO.createImageOutputStream(new File(dir, name + ".gif"));
+            this.gif.setOutput(this.gif_out);
+            this.gif.prepareWriteSequence(null);
+        }
+
+        this.thread = new Thread(this::write_frames, "frame writer " + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /*Call this once a generation. Queues the fittest tour when a frame is due*/
+    public void after_step(GeneticSolver solver)
+    {
+        if (solver.get_generation() % this.interval == 0)
+        {
+            this.save(solver);
+        }
+    }
+
+    /*Queue a frame of the solver's fittest tour now. Never waits: if the writer is too far behind, the frame is dropped*/
+    public void save(GeneticSolver solver)
+    {
+        if (solver.get_generation() == this.last_queued)
+        {
+            return;
+        }
+        this.last_queued = solver.get_generation();
+        int fittest = solver.population.fittest();
+        TourChannel.Snapshot frame = new TourChannel.Snapshot(solver.get_generation(), solver.population.length(fittest), solver.population.tour(fittest));
+        if (!this.queue.offer(frame))
+        {
+            this.dropped++;
+        }
+    }
+
+    /*Save the solver's last generation, wait for every frame to be written and finish the GIF*/
+    public void close(GeneticSolver solver)
+    {
+        this.save(solver);
+        try
+        {
+            this.queue.put(END);
+            this.thread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (this.dropped > 0)
+        {
+            System.err.println("dropped " + this.dropped + " frames of " + this.name + ", the disk couldn't keep up");
+        }
+    }
+
+    /*The writer thread: wait for frames, then write everything that has queued up*/
+    private void write_frames()
+    {
+        List<TourChannel.Snapshot> batch = new ArrayList<TourChannel.Snapshot>();
+        boolean done = false;
+        while (!done)
+        {
+            try
+            {
+                batch.add(this.queue.take());
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+            this.queue.drainTo(batch);
+            for (TourChannel.Snapshot frame: batch)
+            {
+                if (frame == END)
+                {
+                    done = true;
+                    break;
+                }
+                try
+                {
+                    this.write(frame);
+                }
+                catch (IOException e)
+                {
+                    System.err.println("could not write frame " + frame.generation + " of " + this.name + ": " + e.getMessage());
+                }
+            }
+            batch.clear();
+        }
+        this.finish_gif();
+    }
+
+    private void write(TourChannel.Snapshot frame) throws IOException
+    {
+        if (this.format == Format.SVG)
+        {
+            this.write_svg(frame, new File(this.dir, this.name + "-g" + frame.generation + ".svg"));
+        }
+        if (this.format == Format.PNG || this.gif != null)
+        {
+            this.draw(frame);
+            if (this.format == Format.PNG)
+            {
+                ImageIO.write(this.image, "png", new File(this.dir, this.name + "-g" + frame.generation + ".png"));
+            }
+            if (this.gif != null)
+            {
+                this.gif.writeToSequence(new IIOImage(this.image, null, this.gif_metadata()), null);
+                this.gif_frames++;
+            }
+        }
+    }
+
+    /*Draw frame onto image, which gets reused for every frame*/
+    private void draw(TourChannel.Snapshot frame)
+    {
+        int[] tour = frame.tour;
+        int n = tour.length;
+        for (int i = 0; i < n; i++)
+        {
+            this.px[i] = this.xs[tour[i]];
+            this.py[i] = this.ys[tour[i]];
+        }
+        this.px[n] = this.px[0];
+        this.py[n] = this.py[0];
+
+        Graphics2D g = this.image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, SIZE, SIZE);
+        g.setColor(Color.BLACK);
+        g.setStroke(new BasicStroke(1));
+        g.drawPolyline(this.px, this.py, n + 1);
+        if (n <= MAX_DOTS)
+        {
+            g.setColor(Color.RED);
+            for (int i = 0; i < n; i++)
+            {
+                g.fillRect(this.px[i] - 1, this.py[i] - 1, 3, 3);
+            }
+        }
+        g.setColor(Color.BLACK);
+        g.drawString(this.name + "  generation " + frame.generation + "  length " + frame.length, MARGIN, MARGIN - 5);
+        g.dispose();
+    }
+
+    private void write_svg(TourChannel.Snapshot frame, File file) throws IOException
+    {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)))
+        {
+            out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + SIZE + "\" height=\"" + SIZE + "\" viewBox=\"0 0 " + SIZE + " " + SIZE + "\">\n");
+            out.write("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+            out.write("<polygon fill=\"none\" stroke=\"black\" stroke-width=\"1\" points=\"");
+            for (int city: frame.tour)
+            {
+                out.write(this.xs[city] + "," + this.ys[city] + " ");
+            }
+            out.write("\"/>\n");
+            out.write("<text x=\"" + MARGIN + "\" y=\"" + (MARGIN - 5) + "\" font-family=\"sans-serif\" font-size=\"12\">"
+                + this.name.replace("&", "&amp;").replace("<", "&lt;") + "  generation " + frame.generation + "  length " + frame.length + "</text>\n");
+            out.write("</svg>\n");
+        }
+    }
+
+    /*How long a frame of the GIF shows, and on the first one, that the animation loops forever*/
+    private IIOMetadata gif_metadata() throws IOException
+    {
+        ImageWriteParam param = this.gif.getDefaultWriteParam();
+        IIOMetadata metadata = this.gif.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(this.image), param);
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+
+        IIOMetadataNode control = child(root, "GraphicControlExtension");
+        control.setAttribute("disposalMethod", "none");
+        control.setAttribute("userInputFlag", "FALSE");
+        control.setAttribute("transparentColorFlag", "FALSE");
+        control.setAttribute("delayTime", Integer.toString(GIF_DELAY));
+        control.setAttribute("transparentColorIndex", "0");
+
+        if (this.gif_frames == 0)
+        {
+            IIOMetadataNode loop = new IIOMetadataNode("ApplicationExtension");
+            loop.setAttribute("applicationID", "NETSCAPE");
+            loop.setAttribute("authenticationCode", "2.0");
+            // sub-block 1, loop count 0: forever
+            loop.setUserObject(new byte[] {1, 0, 0});
+            child(root, "ApplicationExtensions").appendChild(loop);
+        }
+
+        metadata.setFromTree(format, root);
+        return metadata;
+    }
+
+    private static IIOMetadataNode child(IIOMetadataNode parent, String name)
+    {
+        for (int i = 0; i < parent.getLength(); i++)
+        {
+            if (parent.item(i).getNodeName().equals(name))
+            {
+                return (IIOMetadataNode) parent.item(i);
+            }
+        }
+        IIOMetadataNode node = new IIOMetadataNode(name);
+        parent.appendChild(node);
+        return node;
+    }
+
+    private void finish_gif()
+    {
+        if (this.gif == null)
+        {
+            return;
+        }
+        try
+        {
+            this.gif.endWriteSequence();
+            this.gif_out.close();
+        }
+        catch (IOException | IllegalStateException e)
+        {
+            // endWriteSequence complains if no frame was ever written
+            System.err.println("could not finish " + this.name + ".gif: " + e.getMessage());
+        }
+        this.gif.dispose();
+    }
+}
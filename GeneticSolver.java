@@ -5,20 +5,30 @@ Nick Crews
 */
 
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 
 public class GeneticSolver
 {
-    static Random rn = new Random();
+    // the master random stream. Parallel workers get their own streams split off of it, so a run is reproducible for a given seed and number of workers
+    SplittableRandom rn;
+    // the seed of the run. Every generation starts a fresh master stream from the seed and the generation number,
+    // so the whole random state of a run is those two numbers, and a checkpoint can carry it
+    long seed = new SplittableRandom().nextLong();
+
+    // where breeding runs when stepping in parallel. null means step sequentially on the calling thread
+    ExecutorService executor;
+    // how many chunks the children are split into, each with its own random stream
+    int workers = 1;
+    // the pool set_threads() made, which is ours to shut down. Executors from set_executor() belong to the caller
+    ForkJoinPool own_pool;
 
     //All of the parameters for this solver
     public final int MAX_GENERATION;
@@ -27,61 +37,514 @@ public class GeneticSolver
     public final int SAMPLE_SIZE;
     public final double PARENT_RATIO;
     public final double PERSIST_RATIO;
+    public final int N_CANDIDATES;
+    // how many neighbors the candidate lists keep, unless they were built somewhere else
+    public static final int DEFAULT_N_CANDIDATES = 10;
 
     // how many cities there are
     int n;
-    // adjacency matix for this instances
-    int[][] adj;
+    // answers distance queries for this instance
+    DistanceOracle dist;
     // what generation number are we at?
     int generation;
-    // the set of all paths
-    List<Path> population;
+    // when to stop, by default after MAX_GENERATION generations
+    Termination termination;
+    // the best tour seen in any generation so far. The population's best can get worse, since persisters mutate too
+    Path best;
+    // the deadline of the generation being bred, and whether it ran out of time before it was done
+    long step_deadline = Long.MAX_VALUE;
+    volatile boolean cut_short;
+    // the tours of this generation, all in one flat array
+    Population population;
+    // where the next generation gets written, so we don't allocate new tours. The two swap every generation
+    Population nursery;
+    // picks the persisters and the parents by index, looking only at the lengths
+    Selection selection;
+    // scratch for a generation, so stepping doesn't allocate: the indices of the selected parents,
+    // and those parents in the order they get bred
+    final int[] parents;
+    final int[] pool;
+
+    // Keep the k nearest neighbors of each city, so that the NNA can just look them up
+    CandidateLists nearest;
+
+    // every thread that breeds gets its own scratch Graph, which is reused for every child
+    final ThreadLocal<Graph> scratch = ThreadLocal.withInitial(Graph::new);
+    // where the population's tours live when they are off the heap. null keeps them on the heap
+    OffHeap arena;
+    // where the fittest tour of every generation gets published, for whoever is drawing the run. null publishes nothing
+    TourChannel channel;
+
+    /*The ways a path can mutate*/
+    public enum Mutation
+    {
+        // reverse the cities between two positions
+        REVERSE,
+        // swap the cities at two positions
+        SWAP,
+        // move the city at one position to another
+        INSERT
+    }
+    Mutation mutation = Mutation.REVERSE;
+
+    // how children are bred, and each thread's crossover, which keeps its own scratch space
+    Crossover.Kind crossover_kind = Crossover.Kind.NNX;
+    ThreadLocal<Crossover> crossovers = this.make_crossovers();
+
+    // how the starting tours get built, and what fraction of them. The rest are random permutations
+    Seeding.Kind seeding = Seeding.Kind.RANDOM;
+    double seeding_ratio = 1;
+
+    // whether a tour that turns up twice in a generation gets mutated until it's new. The population then keeps every tour's TourHash,
+    // and seen finds the repeats. duplicates counts them over the run
+    boolean dedup;
+    TourHash.Seen seen;
+    int duplicates;
+    // immigration: when the edge entropy of the population falls below immigration_entropy, its least fit immigration_ratio get
+    // replaced by new tours from the seeding. The entropy is counted every IMMIGRATION_INTERVAL generations, in edges.
+    // An entropy of 0 turns it off
+    double immigration_entropy = 0;
+    double immigration_ratio = .5;
+    EdgeFrequency edges;
+    int immigrations;
+    static final int IMMIGRATION_INTERVAL = 10;
+    // how many times a duplicate gets mutated before it's let through
+    static final int DUPLICATE_TRIES = 8;
+
+    // the memetic stage: what fraction of the children get improved by local search, and how long it may take per generation
+    double local_search_ratio = 0;
+    long local_search_budget;
+    TourImprover.Kind local_search_kind = TourImprover.Kind.OR_OPT;
+    // when this generation's local search has to stop, in System.nanoTime()
+    long local_search_deadline;
+    ThreadLocal<TourImprover> improvers = this.make_improvers();
+
+    public GeneticSolver(int[][] adj)
+    {
+        this(new MatrixDistances(adj));
+    }
+
+    public GeneticSolver(DistanceOracle dist)
+    {
+        this(dist, null);
+    }
 
-    // Keep the list of nearest neighbors for each city, so that the NNA can just look them up
-    Map<Integer, ArrayList<Integer>> nearest;
+    /*Reuses candidate lists that were already built for this instance, e.g. when running many solvers side by side. null builds new ones*/
+    public GeneticSolver(DistanceOracle dist, CandidateLists nearest)
+    {
+        this(dist, nearest, new SolverConfig());
+    }
 
-    public GeneticSolver(int[][] dist)
+    /*A solver with the given parameters. Candidate lists that are passed in win over the config's number of candidates*/
+    public GeneticSolver(DistanceOracle dist, CandidateLists nearest, SolverConfig config)
     {
-        this.adj = dist;
-        this.n = this.adj.length;
-        this.POPSIZE = 100;
-        this.MUTATION_RATE = .01;
-        this.MAX_GENERATION = 50;
-        this.PARENT_RATIO = .5;
-        this.PERSIST_RATIO = .05;
-        this.SAMPLE_SIZE = 2;
+        config.validate();
+        this.dist = dist;
+        this.n = this.dist.size();
+        this.POPSIZE = config.popsize;
+        this.MUTATION_RATE = config.mutation_rate;
+        this.MAX_GENERATION = config.max_generation;
+        this.PARENT_RATIO = config.parent_ratio;
+        this.PERSIST_RATIO = config.persist_ratio;
+        this.SAMPLE_SIZE = config.sample_size;
+        this.N_CANDIDATES = nearest != null ? nearest.k() : config.n_candidates;
+        this.termination = Termination.max_generations(this.MAX_GENERATION);
 
         // if we precompute the list of nearest neighbors for each city and cache it, it is way faster
-        this.nearest = this.make_NNA_lookup();   
+        this.nearest = nearest != null ? nearest : new CandidateLists(this.dist, this.N_CANDIDATES);
+
+        this.mutation = config.mutation;
+        this.set_local_search(config.local_search_ratio, config.local_search_budget_ms, config.local_search_kind);
+        this.set_selection(config.selection, config.rank_pressure);
+        this.set_seeding(config.seeding, config.seeding_ratio);
+        this.set_crossover(config.crossover);
+        this.set_dedup(config.dedup);
+        this.set_immigration(config.immigration_entropy, config.immigration_ratio);
+        this.set_threads(config.threads);
+        this.parents = new int[(int) Math.round(this.POPSIZE * this.PARENT_RATIO)];
+        this.pool = new int[2 * this.POPSIZE];
+    }
+
+    /*Choose when to stop instead of after MAX_GENERATION generations. If the policy has a deadline,
+    a generation that is still being bred when it passes is dropped, and the population stays as it was*/
+    public void set_termination(Termination termination)
+    {
+        this.termination = termination;
+        this.cut_short = false;
+    }
+
+    /*Seed the random streams, so that runs can be reproduced. Call this before initialize()*/
+    public void set_seed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /*The master stream of a generation. The seed is scrambled first, since SplittableRandom's streams for nearby seeds overlap*/
+    static SplittableRandom stream(long seed, int generation)
+    {
+        long z = seed + generation * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return new SplittableRandom(z ^ (z >>> 31));
+    }
+
+    /*Breed, mutate and evaluate the children in parallel, split into this many chunks on the given executor, which stays the caller's
+    to shut down. A null executor (or 1 worker) goes back to stepping sequentially*/
+    public void set_executor(ExecutorService executor, int workers)
+    {
+        this.close();
+        if (executor == null || workers <= 1)
+        {
+            this.executor = null;
+            this.workers = 1;
+            return;
+        }
+        this.executor = executor;
+        this.workers = workers;
+    }
+
+    /*Step in parallel on a ForkJoinPool of our own with this many threads, or sequentially if threads is 1. close() shuts it down*/
+    public void set_threads(int threads)
+    {
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        this.set_executor(pool, threads);
+        this.own_pool = pool;
+    }
+
+    /*Shut down the pool set_threads() made, if there is one, and go back to stepping sequentially. Call this when done with the solver*/
+    public void close()
+    {
+        if (this.own_pool != null)
+        {
+            this.own_pool.shutdown();
+            this.own_pool = null;
+        }
+        this.executor = null;
+        this.workers = 1;
+    }
+
+    /*Choose how paths mutate. All of them update the length in O(1)*/
+    public void set_mutation(Mutation mutation)
+    {
+        this.mutation = mutation;
+    }
+
+    /*Keep the population's tours in memory from arena, off the heap, or on the heap again if it's null. Call this before
+    initialize() or resume(), and close the arena only once the solver is done with*/
+    public void set_off_heap(OffHeap arena)
+    {
+        this.arena = arena;
+    }
+
+    /*Publish a copy of the fittest tour to channel after every generation. Publishing never waits on whoever reads it*/
+    public void publish_to(TourChannel channel)
+    {
+        this.channel = channel;
+        this.publish();
+    }
+
+    /*Choose how parents are selected. The pressure only matters to RANK, see Selection*/
+    public void set_selection(Selection.Kind kind, double rank_pressure)
+    {
+        this.selection = new Selection(kind, this.POPSIZE, this.SAMPLE_SIZE, rank_pressure);
+    }
+
+    /*Build this fraction of the starting tours with a constructive heuristic instead of at random, see Seeding*/
+    public void set_seeding(Seeding.Kind kind, double ratio)
+    {
+        this.seeding = kind;
+        this.seeding_ratio = ratio;
+    }
+
+    /*Run 2-opt and Or-opt on this fraction of the children, for at most budget_ms milliseconds of each generation.
+    A ratio of 0 turns the local search off. With a time budget, runs are only reproducible if the budget is never used up*/
+    public void set_local_search(double ratio, long budget_ms)
+    {
+        this.set_local_search(ratio, budget_ms, TourImprover.Kind.OR_OPT);
+    }
+
+    /*Same, but choosing which kind of local search to use*/
+    public void set_local_search(double ratio, long budget_ms, TourImprover.Kind kind)
+    {
+        this.local_search_ratio = ratio;
+        this.local_search_budget = budget_ms * 1000000L;
+        if (kind != this.local_search_kind)
+        {
+            this.local_search_kind = kind;
+            this.improvers = this.make_improvers();
+        }
+    }
+
+    private ThreadLocal<TourImprover> make_improvers()
+    {
+        return ThreadLocal.withInitial(() -> this.local_search_kind.make(this.dist, this.nearest));
+    }
+
+    /*Choose how children are bred from their parents, see Crossover*/
+    public void set_crossover(Crossover.Kind kind)
+    {
+        if (kind != this.crossover_kind)
+        {
+            this.crossover_kind = kind;
+            this.crossovers = this.make_crossovers();
+        }
+    }
+
+    private ThreadLocal<Crossover> make_crossovers()
+    {
+        return ThreadLocal.withInitial(() -> this.crossover_kind.make(this));
+    }
+
+    /*Reject duplicates: after breeding, a tour that is already in the next generation gets mutated until it isn't, see TourHash*/
+    public void set_dedup(boolean dedup)
+    {
+        this.dedup = dedup;
+        this.seen = dedup ? new TourHash.Seen(this.POPSIZE) : null;
+        if (dedup && this.population != null)
+        {
+            this.rehash(this.population);
+        }
+    }
+
+    /*When the edge entropy of the population falls below entropy, replace its least fit ratio with new tours from the seeding,
+    see EdgeFrequency. An entropy of 0 never does*/
+    public void set_immigration(double entropy, double ratio)
+    {
+        this.immigration_entropy = entropy;
+        this.immigration_ratio = ratio;
+    }
+
+    /*Polish the fittest individual with Lin-Kernighan for at most budget_ms milliseconds, e.g. at the end of a run. Returns its new length*/
+    public int polish(long budget_ms)
+    {
+        int i = this.population.fittest();
+        int[] tour = this.population.tour(i);
+        TourImprover lk = new LinKernighan(this.dist, this.nearest);
+        int length = this.population.length(i) + lk.improve(tour, System.nanoTime() + budget_ms * 1000000L);
+        this.population.set(i, tour, length);
+        this.population.hashes[i] = TourHash.of(tour, 0, this.n);
+        this.update_best();
+        return length;
     }
 
     public void initialize()
     {
+        this.rn = stream(this.seed, 0);
         this.population = init_population(this.POPSIZE);
+        if (this.dedup)
+        {
+            this.rehash(this.population);
+        }
+        this.nursery = new Population(this.POPSIZE, this.n, this.arena);
+        this.best = this.path(this.population.fittest());
         this.generation = 1;
+        this.publish();
+    }
+
+    /*Everything needed to carry on with this run later, copied so the solver can keep evolving while it gets written*/
+    public Checkpoint checkpoint()
+    {
+        Checkpoint c = new Checkpoint();
+        c.n = this.n;
+        c.generation = this.generation;
+        c.seed = this.seed;
+        c.max_generation = this.MAX_GENERATION;
+        c.mutation_rate = this.MUTATION_RATE;
+        c.popsize = this.POPSIZE;
+        c.sample_size = this.SAMPLE_SIZE;
+        c.parent_ratio = this.PARENT_RATIO;
+        c.persist_ratio = this.PERSIST_RATIO;
+        c.n_candidates = this.N_CANDIDATES;
+        c.mutation = this.mutation;
+        c.local_search_ratio = this.local_search_ratio;
+        c.local_search_budget = this.local_search_budget;
+        c.local_search_kind = this.local_search_kind;
+        c.selection = this.selection.kind;
+        c.rank_pressure = this.selection.pressure;
+        c.crossover = this.crossover_kind;
+        c.dedup = this.dedup;
+        c.immigration_entropy = this.immigration_entropy;
+        c.immigration_ratio = this.immigration_ratio;
+        c.seeding = this.seeding;
+        c.seeding_ratio = this.seeding_ratio;
+        c.best_length = this.best.length;
+        c.best = this.best.cities.clone();
+        c.tours = new int[this.POPSIZE * this.n];
+        for (int i = 0; i < this.POPSIZE; i++)
+        {
+            this.population.read(i, c.tours, i * this.n);
+        }
+        c.lengths = this.population.lengths.clone();
+        return c;
+    }
+
+    /*Carry on from a checkpoint instead of initializing. Stepping from here does exactly what the checkpointed run did,
+    given the same number of workers and a local search that never ran out of time*/
+    public void resume(Checkpoint c)
+    {
+        if (c.n != this.n || c.popsize != this.POPSIZE || c.sample_size != this.SAMPLE_SIZE || c.mutation_rate != this.MUTATION_RATE
+            || c.parent_ratio != this.PARENT_RATIO || c.persist_ratio != this.PERSIST_RATIO || c.n_candidates != this.N_CANDIDATES
+            || c.max_generation != this.MAX_GENERATION)
+        {
+            throw new IllegalArgumentException("the checkpoint was made by a solver with other parameters or for another instance");
+        }
+        this.seed = c.seed;
+        this.set_mutation(c.mutation);
+        this.set_selection(c.selection, c.rank_pressure);
+        this.set_crossover(c.crossover);
+        this.set_immigration(c.immigration_entropy, c.immigration_ratio);
+        this.set_seeding(c.seeding, c.seeding_ratio);
+        this.set_local_search(c.local_search_ratio, c.local_search_budget / 1000000L, c.local_search_kind);
+        this.local_search_budget = c.local_search_budget;
+
+        this.population = new Population(this.POPSIZE, this.n, this.arena);
+        for (int i = 0; i < this.POPSIZE; i++)
+        {
+            this.population.write(i, c.tours, i * this.n, c.lengths[i]);
+        }
+        // the hashes come from the tours
+        this.set_dedup(c.dedup);
+        this.nursery = new Population(this.POPSIZE, this.n, this.arena);
+        // the best so far may have been lost from the population since, so it comes from the checkpoint too
+        this.best = new Path(c.best.clone(), c.best_length);
+        this.generation = c.generation;
+        this.publish();
     }
 
+    /*Returns a copy of the best path, since the population's paths get recycled as generations go by*/
     public Path fittest_individual()
     {
-        return Collections.min(this.population);
+        return this.path(this.population.fittest());
+    }
+
+    /*A copy of the i'th tour of the population*/
+    private Path path(int i)
+    {
+        return new Path(this.population.tour(i), this.population.length(i));
+    }
+
+    /*Returns a copy of the best path of any generation so far*/
+    public Path best_so_far()
+    {
+        return new Path(this.best);
+    }
+
+    /*The length of the best path of any generation so far*/
+    public int best_length()
+    {
+        return this.best.length;
+    }
+
+    /*How far the population is from having converged: the fraction of a tour's edges that the current best tour doesn't have, on average over the population*/
+    public double diversity()
+    {
+        int[] tour = this.population.tour(this.population.fittest());
+        int[] next = new int[this.n];
+        for (int i = 0; i < this.n; i++)
+        {
+            next[tour[i]] = tour[i+1 == this.n ? 0 : i+1];
+        }
+        long differing = 0;
+        for (int p = 0; p < this.POPSIZE; p++)
+        {
+            this.population.read(p, tour, 0);
+            for (int i = 0; i < this.n; i++)
+            {
+                int a = tour[i];
+                int b = tour[i+1 == this.n ? 0 : i+1];
+                if (next[a] != b && next[b] != a)
+                {
+                    differing++;
+                }
+            }
+        }
+        return (double) differing / ((long) this.POPSIZE * this.n);
+    }
+
+    /*The edge entropy of the population, between 1 when no two tours share an edge and 0 when they are all the same, see EdgeFrequency*/
+    public double edge_entropy()
+    {
+        if (this.edges == null)
+        {
+            this.edges = new EdgeFrequency(this.n);
+        }
+        this.edges.count(this.population, this.scratch.get().tour);
+        return this.edges.entropy();
+    }
+
+    /*How many duplicate tours have been mutated away, and how many times immigrants came in, so far in this run*/
+    public int duplicates()
+    {
+        return this.duplicates;
+    }
+
+    public int immigrations()
+    {
+        return this.immigrations;
     }
 
+    /*Copies of the n fittest individuals, fittest first*/
     public ArrayList<Path> n_fittest(int n)
     {
-        Collections.sort(this.population);
-        ArrayList<Path> top = new ArrayList<Path>(this.population.subList(0, n));
+        ArrayList<Path> top = new ArrayList<Path>();
+        for (int i: this.fittest_indices(n))
+        {
+            top.add(this.path(i));
+        }
         return top;
     }
 
-    /*What is the average path length of this generation*/
-    public int avg_fitness()
+    /*The indices of the n fittest individuals, fittest first. Only those n get sorted*/
+    private int[] fittest_indices(int n)
+    {
+        int[] top = Arrays.copyOf(this.selection.fittest(this.population.lengths, n), n);
+        // an insertion sort, since it's stable and n is small
+        for (int i = 1; i < n; i++)
+        {
+            int index = top[i];
+            int j = i;
+            while (j > 0 && this.population.length(top[j-1]) > this.population.length(index))
+            {
+                top[j] = top[j-1];
+                j--;
+            }
+            top[j] = index;
+        }
+        return top;
+    }
+
+    /*Copies of the tours of the count fittest individuals, to send to another population*/
+    public int[][] migrants(int count)
+    {
+        int[] best = this.fittest_indices(Math.min(count, this.POPSIZE));
+        int[][] tours = new int[best.length][];
+        for (int i = 0; i < tours.length; i++)
+        {
+            tours[i] = this.population.tour(best[i]);
+        }
+        return tours;
+    }
+
+    /*Replace the least fit individuals with tours that came from another population. The persisters are never replaced*/
+    public void accept_migrants(int[][] tours)
     {
-        int total = 0;
-        for (Path p: population)
+        int n_persisters = (int) Math.round(this.POPSIZE * this.PERSIST_RATIO);
+        int count = Math.min(tours.length, this.POPSIZE - n_persisters);
+        // everything past the POPSIZE-count fittest is at least as long as all of them
+        int[] order = this.selection.fittest(this.population.lengths, this.POPSIZE - count);
+        for (int i = 0; i < count; i++)
         {
-            total += p.length;
+            int slot = order[this.POPSIZE-1-i];
+            this.population.set(slot, tours[i], this.tour_length(tours[i], 0));
+            this.population.hashes[slot] = TourHash.of(tours[i], 0, this.n);
         }
-        int avg = (int) Math.round(total / this.POPSIZE);
+        this.update_best();
+    }
+
+    /*What is the average path length of this generation*/
+    public int avg_fitness()
+    {
+        int avg = (int) Math.round((double) this.population.total_length() / this.POPSIZE);
         return avg;
 
     }
@@ -94,102 +557,210 @@ public class GeneticSolver
     /*Evolve the population one generation*/
     public void step()
     {
-        // select individuals which will persist between generations, if they are the most fit
+        this.step_deadline = this.termination.deadline();
+        if (System.nanoTime() >= this.step_deadline)
+        {
+            this.cut_short = true;
+            return;
+        }
+        this.rn = stream(this.seed, this.generation);
+        SolverMetrics.GenerationEvent event = null;
+        long clock = 0;
+        long allocated = 0;
+        if (SolverMetrics.ENABLED)
+        {
+            event = new SolverMetrics.GenerationEvent();
+            event.begin();
+            clock = System.nanoTime();
+            allocated = SolverMetrics.allocated();
+        }
+
+        // the next generation gets written into the nursery. First copy over the individuals which will persist between generations, the most fit
+        Population next = this.nursery;
         int n_persisters = (int) Math.round(this.POPSIZE * this.PERSIST_RATIO);
-        List<Path> persisters = n_fittest(n_persisters);
+        int[] persisters = this.selection.fittest(this.population.lengths, n_persisters);
+        for (int i = 0; i < n_persisters; i++)
+        {
+            next.copy_from(i, this.population, persisters[i]);
+        }
 
         // choose parents from our pool
-        int n_parents = (int) Math.round(this.POPSIZE * this.PARENT_RATIO);
-        List<Path> parents = tournament_select(population, n_parents);
-        
-        // breed these parents to result in popsize children
-        int n_children = this.POPSIZE - n_persisters;
-        List<Path>children = breed_population(parents, n_children);
-        
-        // make the population be these persisters and children
-        this.population.clear();
-        this.population.addAll(persisters);
-        this.population.addAll(children);
-
-        // mutate some of them
-        mutate_population(population);
-        
+        int n_parents = this.parents.length;
+        this.selection.select(this.population.lengths, this.parents, n_parents, this.rn);
+        if (SolverMetrics.ENABLED)
+        {
+            clock = SolverMetrics.GLOBAL.lap(SolverMetrics.SELECTION, clock);
+        }
+
+        // ...then breed these parents into the rest of the spots. This mutates the children as well, and improves some of them
+        this.local_search_deadline = Math.min(System.nanoTime() + this.local_search_budget, this.step_deadline);
+        breed_population(this.parents, next, n_persisters);
+        if (this.cut_short)
+        {
+            // out of time. The population is untouched, only the nursery holds half a generation
+            return;
+        }
+        if (SolverMetrics.ENABLED)
+        {
+            clock = SolverMetrics.GLOBAL.lap(SolverMetrics.BREEDING, clock);
+        }
+
+        // the persisters can mutate too
+        mutate_population(next, 0, n_persisters, this.rn);
+        if (this.dedup)
+        {
+            this.reject_duplicates(next, this.rn);
+        }
+        if (SolverMetrics.ENABLED)
+        {
+            SolverMetrics.GLOBAL.lap(SolverMetrics.MUTATION, clock);
+        }
+
+        // make the population be these persisters and children, and recycle the old generation
+        this.nursery = this.population;
+        this.population = next;
+        if (this.immigration_entropy > 0 && this.generation % IMMIGRATION_INTERVAL == 0 && this.edge_entropy() < this.immigration_entropy)
+        {
+            this.immigrate(this.rn);
+        }
+
+        this.update_best();
         this.generation++;
+        this.publish();
+        if (SolverMetrics.ENABLED)
+        {
+            SolverMetrics.GLOBAL.end_generation(this, event, this.POPSIZE - n_persisters, SolverMetrics.allocated() - allocated);
+        }
     }
 
-    public boolean should_continue()
+    private void update_best()
     {
-        if (this.generation <= this.MAX_GENERATION)
+        int fittest = this.population.fittest();
+        if (this.population.length(fittest) < this.best.length)
         {
-            return true;
+            this.best.copy_from(this.population, fittest);
         }
-        return false;
+    }
+
+    private void publish()
+    {
+        if (this.channel != null && this.population != null)
+        {
+            int fittest = this.population.fittest();
+            this.channel.publish(new TourChannel.Snapshot(this.generation, this.population.length(fittest), this.population.tour(fittest)));
+        }
+    }
+
+    public boolean should_continue()
+    {
+        return !this.cut_short && !this.termination.should_stop(this);
     }
 
     /* generates popsize random starting paths, which are permutations of numbers 0 thru n-1*/
-    private ArrayList<Path> init_population(int popsize)
+    private Population init_population(int popsize)
     {
         // make our final result
-        ArrayList<Path> pop = new ArrayList<Path>();
-        // make an arraylist of the numbers 0 thru n-1, we will use this to shuffle and add later
-        ArrayList<Integer> range = new ArrayList<>();
+        Population pop = new Population(popsize, this.n, this.arena);
+        // the first few get built by the seeding heuristic, the rest are random
+        int seeded = this.seeding == Seeding.Kind.RANDOM ? 0 : (int) Math.round(popsize * this.seeding_ratio);
+        if (seeded > 0)
+        {
+            int[] slots = new int[seeded];
+            for (int i = 0; i < seeded; i++)
+            {
+                slots[i] = i;
+            }
+            this.build_tours(pop, slots, this.seeding, this.rn);
+        }
+
+        // make an array of the numbers 0 thru n-1, we will use this to shuffle and add later
+        int[] range = new int[this.n];
         for (int i=0; i<n; i++)
         {
-            range.add(i);
+            range[i] = i;
         }
 
-        // put random permutations into our population
-        for (int i = 0; i < popsize; i++)
+        // put random permutations into the rest of our population
+        for (int i = seeded; i < popsize; i++)
         {
-            Collections.shuffle(range);
-            pop.add(new Path(range));
+            shuffle(range, this.n, this.rn);
+            pop.set(i, range, this.tour_length(range, 0));
         }
 
         return pop;
     }
 
-    /*randomly choose SAMPLE_SIZE individuals from the population, choose the fittest, replace. Repeat until you have enough*/
-    private ArrayList<Path> tournament_select(List<Path> population, int number)
+    /*Builds the tours at the indices slots of pop with the seeding heuristic kind, each from its own random stream split off of rng,
+    in parallel on the executor if there is one and on the common pool otherwise. The streams are split off in order, so it's
+    reproducible either way. Once the termination's deadline has passed, the tours still to go are random permutations instead*/
+    private void build_tours(Population pop, int[] slots, Seeding.Kind kind, SplittableRandom rng)
     {
-        // init the result
-        ArrayList<Path> fittest = new ArrayList<Path>();
-
-        ArrayList<Path> a_sample;
-        while (fittest.size() < number)
+        Seeding seeding = new Seeding(kind, this.dist, this.nearest);
+        long deadline = this.termination.deadline();
+        int count = slots.length;
+        SplittableRandom[] streams = new SplittableRandom[count];
+        for (int i = 0; i < count; i++)
         {
-            a_sample = sample(population, this.SAMPLE_SIZE);
-            fittest.add(Collections.min(a_sample));
+            streams[i] = rng.split();
         }
-
-        return fittest;
-    }
-
-    /*Randomly sample number individuals from the population*/
-    private ArrayList<Path> sample(List<Path> population, int number)
-    {
-        ArrayList<Path> result = new ArrayList<Path>();
-        int random_index;
-        for (int i = 0; i < number; i++)
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < count; i++)
+        {
+            int index = i;
+            tasks.add(() -> {
+                int[] tour = new int[this.n];
+                if (System.nanoTime() < deadline)
+                {
+                    seeding.build(index, tour, streams[index]);
+                }
+                else
+                {
+                    // out of time, so it's cheap
+                    for (int j = 0; j < this.n; j++)
+                    {
+                        tour[j] = j;
+                    }
+                    shuffle(tour, this.n, streams[index]);
+                }
+                pop.set(slots[index], tour, this.tour_length(tour, 0));
+                pop.hashes[slots[index]] = this.dedup ? TourHash.of(tour, 0, this.n) : 0;
+                return null;
+            });
+        }
+        ExecutorService executor = this.executor != null ? this.executor : ForkJoinPool.commonPool();
+        try
+        {
+            for (Future<Void> f: executor.invokeAll(tasks))
+            {
+                f.get();
+            }
+        }
+        catch (InterruptedException e)
         {
-            random_index = rn.nextInt(population.size());
-            result.add(population.get(random_index));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while seeding", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("seeding failed", e.getCause());
         }
-        return result;
     }
 
-    /* Uses the individuals in parents to create n_children children*/
-    private ArrayList<Path> breed_population(List<Path> parents, int n_children)
+    /* Uses the individuals of the population at the indices in parents to breed a child into every tour of children from first on*/
+    private void breed_population(int[] parents, Population children, int first)
     {
+        int n_children = children.size() - first;
         // grow the list of parents into a pool large enough to breed n_children
-        ArrayList<Path> pool = new ArrayList<Path>();
+        int[] pool = this.pool;
+        int size = 0;
         // this is the best way I came up with for making sure no parent appears more than 1 more time than any other parent
-        while (pool.size() < 2*n_children)
+        while (size < 2*n_children)
         {
-            Collections.shuffle(parents);
-            for (Path p: parents)
+            shuffle(parents, parents.length, this.rn);
+            for (int p: parents)
             {
-                pool.add(p);
-                if (pool.size() >= 2*n_children)
+                pool[size++] = p;
+                if (size >= 2*n_children)
                 {
                     break;
                 }
@@ -197,67 +768,467 @@ public class GeneticSolver
         }
 
         // randomly choose 2 parents from pool without replacement and breed them
-        ArrayList<Path> children = new ArrayList<Path>();
-        Path p1, p2, child;
-        Collections.shuffle(pool);
-        for (int i = 0; i < pool.size()-1; i+=2)
+        shuffle(pool, size, this.rn);
+
+        if (this.executor == null)
         {
-            p1 = pool.get(i);
-            p2 = pool.get(i+1);
-            child = breed(p1, p2);
-            children.add(child);
+            breed_chunk(pool, children, first, 0, n_children, this.rn);
+            return;
+        }
+
+        // split the children into chunks, each with its own random stream split off in a fixed order
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int w = 0; w < this.workers; w++)
+        {
+            int from = (int) ((long) n_children * w / this.workers);
+            int to = (int) ((long) n_children * (w+1) / this.workers);
+            SplittableRandom stream = this.rn.split();
+            tasks.add(() -> {
+                long allocated = SolverMetrics.ENABLED ? SolverMetrics.allocated() : 0;
+                breed_chunk(pool, children, first, from, to, stream);
+                if (SolverMetrics.ENABLED)
+                {
+                    SolverMetrics.GLOBAL.allocated_bytes.add(SolverMetrics.allocated() - allocated);
+                }
+                return null;
+            });
+        }
+        try
+        {
+            for (Future<Void> f: this.executor.invokeAll(tasks))
+            {
+                f.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while breeding", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("breeding failed", e.getCause());
+        }
+    }
+
+    /*Breeds and mutates the children first+from thru first+to-1, using the individuals at pool[2i] and pool[2i+1] for child first+i*/
+    private void breed_chunk(int[] pool, Population children, int first, int from, int to, SplittableRandom rng)
+    {
+        boolean timed = this.step_deadline != Long.MAX_VALUE;
+        for (int i = from; i < to; i++)
+        {
+            if (timed && (this.cut_short || System.nanoTime() >= this.step_deadline))
+            {
+                this.cut_short = true;
+                return;
+            }
+            int child = first + i;
+            Graph g = this.scratch.get();
+            // the child is bred where it lives, or in the graph's scratch tour when the population is off the heap
+            int[] tour = children.on_heap() ? children.tours : g.tour;
+            int base = children.on_heap() ? children.base(child) : 0;
+            int length = breed(pool[2*i], pool[2*i+1], g, tour, base, rng);
+            if (rng.nextDouble() < this.MUTATION_RATE)
+            {
+                long clock = SolverMetrics.ENABLED ? System.nanoTime() : 0;
+                length += this.mutate_at(tour, base, rng);
+                assert length == this.tour_length(tour, base) : "mutation got the length wrong";
+                if (SolverMetrics.ENABLED)
+                {
+                    SolverMetrics.GLOBAL.lap(SolverMetrics.MUTATION, clock);
+                }
+            }
+            if (this.local_search_ratio > 0 && rng.nextDouble() < this.local_search_ratio && System.nanoTime() < this.local_search_deadline)
+            {
+                long clock = SolverMetrics.ENABLED ? System.nanoTime() : 0;
+                // the improvers work on a whole array, so a child in the population gets copied out
+                if (children.on_heap())
+                {
+                    System.arraycopy(tour, base, g.tour, 0, this.n);
+                }
+                length += this.improvers.get().improve(g.tour, this.local_search_deadline);
+                if (children.on_heap())
+                {
+                    System.arraycopy(g.tour, 0, tour, base, this.n);
+                }
+                if (SolverMetrics.ENABLED)
+                {
+                    SolverMetrics.GLOBAL.lap(SolverMetrics.LOCAL_SEARCH, clock);
+                }
+            }
+            if (children.on_heap())
+            {
+                children.lengths[child] = length;
+            }
+            else
+            {
+                children.write(child, tour, base, length);
+            }
+            if (this.dedup)
+            {
+                children.hashes[child] = TourHash.of(tour, base, this.n);
+            }
         }
-        
-        return children;
     }
 
-    private Path breed(Path p1, Path p2)
+    /*Crossover of the individuals p1 and p2 of the population, written into child[base, base+n). Returns its length*/
+    private int breed(int p1, int p2, Graph g, int[] child, int base, SplittableRandom rng)
     {
-        Graph g = new Graph();
-        g.union(p1, p2);
-        Path child = g.NNA();
-        return child;
+        Population pop = this.population;
+        int length;
+        if (pop.on_heap())
+        {
+            length = this.crossovers.get().cross(pop.tours, pop.base(p1), pop.length(p1), pop.tours, pop.base(p2), child, base, rng);
+        }
+        else
+        {
+            pop.read(p1, g.parent1, 0);
+            pop.read(p2, g.parent2, 0);
+            length = this.crossovers.get().cross(g.parent1, 0, pop.length(p1), g.parent2, 0, child, base, rng);
+        }
+        assert length == this.tour_length(child, base) : this.crossover_kind + " got the length wrong";
+        return length;
     }
 
-    /*mutates a portion of the population*/
-    private void mutate_population(List<Path> paths)
+    /*mutates the tours from thru to-1 of pop*/
+    private void mutate_population(Population pop, int from, int to, SplittableRandom rng)
     {
-        for (Path p: paths)
+        for (int i = from; i < to; i++)
         {
-            if (rn.nextDouble() < this.MUTATION_RATE)
+            if (rng.nextDouble() < this.MUTATION_RATE)
             {
-                p.mutate();
+                this.mutate(pop, i, rng);
             } 
         }
     }
 
-    /*Returns a map that lists the ordered list of nearest neighbors for each city*/
-    private Map<Integer, ArrayList<Integer>> make_NNA_lookup()
+    /*Mutates tour i of pop, keeping its length up to date, and its hash too if we keep those*/
+    private void mutate(Population pop, int i, SplittableRandom rng)
+    {
+        int c1 = rng.nextInt(this.n);
+        int c2 = rng.nextInt(this.n);
+        int[] tours = pop.tours;
+        int base = pop.base(i);
+        if (!pop.on_heap())
+        {
+            tours = this.scratch.get().tour;
+            base = 0;
+            pop.read(i, tours, 0);
+        }
+        if (this.dedup)
+        {
+            pop.hashes[i] ^= this.hash_change_at(tours, base, c1, c2);
+        }
+        int length = pop.length(i) + this.mutate_at(tours, base, c1, c2);
+        if (pop.on_heap())
+        {
+            pop.lengths[i] = length;
+        }
+        else
+        {
+            pop.write(i, tours, 0, length);
+        }
+        assert length == this.tour_length(tours, base) : "mutation got the length wrong";
+        assert !this.dedup || pop.hashes[i] == TourHash.of(tours, base, this.n) : "mutation got the hash wrong";
+    }
+
+    /*Mutates every tour of pop that is the same as one before it, so that every tour is different, as far as their hashes can tell.
+    The persisters come first, so it's the copies of them that change. A duplicate that is still one after DUPLICATE_TRIES
+    mutations is let be*/
+    private void reject_duplicates(Population pop, SplittableRandom rng)
+    {
+        this.seen.clear();
+        for (int i = 0; i < pop.size(); i++)
+        {
+            for (int tries = 0; !this.seen.add(pop.hashes[i]) && tries < DUPLICATE_TRIES; tries++)
+            {
+                if (tries == 0)
+                {
+                    this.duplicates++;
+                    if (SolverMetrics.ENABLED)
+                    {
+                        SolverMetrics.GLOBAL.duplicates.increment();
+                    }
+                }
+                this.mutate(pop, i, rng);
+            }
+        }
+    }
+
+    /*Replaces the least fit immigration_ratio of the population with new tours from the seeding, built like the starting ones*/
+    private void immigrate(SplittableRandom rng)
     {
-        Map<Integer, ArrayList<Integer>> result = new HashMap<Integer, ArrayList<Integer>>();
+        int count = (int) Math.round(this.POPSIZE * this.immigration_ratio);
+        // everything past the POPSIZE-count fittest is at least as long as all of them
+        int[] order = this.selection.fittest(this.population.lengths, this.POPSIZE - count);
+        int[] slots = Arrays.copyOfRange(order, this.POPSIZE - count, this.POPSIZE);
+        this.build_tours(this.population, slots, this.seeding, rng);
+        this.immigrations++;
+        if (SolverMetrics.ENABLED)
+        {
+            SolverMetrics.GLOBAL.immigrations.increment();
+        }
+    }
 
-        // make a list of all the cities from 0 to n-1
-        ArrayList<Integer> allCities = new ArrayList<Integer>();
-        for (int i=0; i<this.n; i++)
+    /*Works out the hash of every tour of pop*/
+    private void rehash(Population pop)
+    {
+        int[] tour = this.scratch.get().tour;
+        for (int i = 0; i < pop.size(); i++)
         {
-            allCities.add(i);
+            pop.read(i, tour, 0);
+            pop.hashes[i] = TourHash.of(tour, 0, this.n);
         }
+    }
 
-        // go through all of the cities
-        ArrayList<Integer> neighbors;
-        for (int fromCity=0; fromCity < this.n; fromCity++)
+    /*computes the length of the tour at tours[base, base+n)*/
+    int tour_length(int[] tours, int base)
+    {
+        long clock = SolverMetrics.ENABLED ? System.nanoTime() : 0;
+        int score = 0;
+        int from, to;
+        for (int i = base; i < base+this.n-1; i++)
+        {
+            from = tours[i];
+            to = tours[i+1];
+            score += this.dist.dist(from, to);
+        }
+        // add in the edge to return to first city
+        int last_city = tours[base+this.n-1];
+        int first_city = tours[base];
+        score += this.dist.dist(last_city, first_city);
+        if (SolverMetrics.ENABLED)
         {
-            // get all the neightbors to this city
-            neighbors = new ArrayList<Integer>(allCities);
-            neighbors.remove(fromCity);
+            SolverMetrics.GLOBAL.evaluations.increment();
+            SolverMetrics.GLOBAL.lap(SolverMetrics.EVALUATION, clock);
+        }
+        return score;
+    }
+
+    /*Mutates the tour at tours[base, base+n) with the solver's kind of mutation, between 2 randomly selected positions.
+    Returns the change in its length*/
+    int mutate_at(int[] tours, int base, SplittableRandom rng)
+    {
+        // get our two random positions
+        int c1 = rng.nextInt(this.n);
+        int c2 = rng.nextInt(this.n);
+        return this.mutate_at(tours, base, c1, c2);
+    }
+
+    /*The same, between the positions c1 and c2*/
+    int mutate_at(int[] tours, int base, int c1, int c2)
+    {
+        int change = 0;
+        switch (this.mutation)
+        {
+            case REVERSE:
+                // make sure the positions are in order. We don't have deal with wraparound because paths are symmetrical
+                change = this.reverse_run_at(tours, base, Math.min(c1,c2), Math.max(c1,c2) - Math.min(c1,c2) + 1);
+                break;
+            case SWAP:
+                change = this.swap_at(tours, base, c1, c2);
+                break;
+            case INSERT:
+                change = this.insert_at(tours, base, c1, c2);
+                break;
+        }
+        return change;
+    }
+
+    /*What mutate_at(tours, base, c1, c2) is about to do to the TourHash of the tour, found in O(1) from the edges it takes out
+    and puts in, which are the same ones the change in length comes from. Call it before mutating*/
+    long hash_change_at(int[] tours, int base, int c1, int c2)
+    {
+        int n = this.n;
+        int i = Math.min(c1, c2);
+        int j = Math.max(c1, c2);
+        switch (this.mutation)
+        {
+            case REVERSE:
+                return this.reverse_hash_change_at(tours, base, i, j - i + 1);
+            case SWAP:
+                if (i == j || n <= 3)
+                {
+                    return 0;
+                }
+                if (i+1 == j)
+                {
+                    return this.reverse_hash_change_at(tours, base, i, 2);
+                }
+                if (i == 0 && j == n-1)
+                {
+                    return this.reverse_hash_change_at(tours, base, j, 2);
+                }
+                int a = tours[base+i];
+                int b = tours[base+j];
+                int pa = tours[base + this.wrap(i-1)];
+                int na = tours[base+i+1];
+                int pb = tours[base+j-1];
+                int nb = tours[base + this.wrap(j+1)];
+                return TourHash.edge(pa, a) ^ TourHash.edge(a, na) ^ TourHash.edge(pb, b) ^ TourHash.edge(b, nb)
+                    ^ TourHash.edge(pa, b) ^ TourHash.edge(b, na) ^ TourHash.edge(pb, a) ^ TourHash.edge(a, nb);
+            case INSERT:
+                // moving the first city to the end or back is a rotation, which is the same cycle
+                if (c1 == c2 || n <= 3 || (i == 0 && j == n-1))
+                {
+                    return 0;
+                }
+                int x = tours[base+c1];
+                int p = tours[base + this.wrap(c1-1)];
+                int q = tours[base + this.wrap(c1+1)];
+                int l = c2 > c1 ? tours[base+c2] : tours[base + this.wrap(c2-1)];
+                int r = c2 > c1 ? tours[base + this.wrap(c2+1)] : tours[base+c2];
+                return TourHash.edge(p, x) ^ TourHash.edge(x, q) ^ TourHash.edge(l, r)
+                    ^ TourHash.edge(p, q) ^ TourHash.edge(l, x) ^ TourHash.edge(x, r);
+        }
+        return 0;
+    }
 
-            // now sort these neighbors by their distance to fromCity
-            neighbors.sort( new NeighborComparator(fromCity) );
+    /*What reverse_run_at(tours, base, start, count) does to the hash: only the edges at the ends of the run change*/
+    private long reverse_hash_change_at(int[] tours, int base, int start, int count)
+    {
+        if (count >= this.n-1 || count < 2)
+        {
+            return 0;
+        }
+        int before = tours[base + this.wrap(start-1)];
+        int first = tours[base+start];
+        int last = tours[base + this.wrap(start+count-1)];
+        int after = tours[base + this.wrap(start+count)];
+        return TourHash.edge(before, first) ^ TourHash.edge(last, after) ^ TourHash.edge(before, last) ^ TourHash.edge(first, after);
+    }
 
-            // add these neighbors to the lookup table
-            result.put(fromCity, neighbors);
+    /*Swap the cities at positions i and j of the tour at tours[base, base+n). Returns the change in length, found in O(1)*/
+    int swap_at(int[] tours, int base, int i, int j)
+    {
+        int n = this.n;
+        if (i == j || n <= 3)
+        {
+            // with 3 cities every order is the same cycle
+            int temp = tours[base+i];
+            tours[base+i] = tours[base+j];
+            tours[base+j] = temp;
+            return 0;
+        }
+        // swapping neighbors is a reversal of the two of them
+        if (this.wrap(i+1) == j)
+        {
+            return this.reverse_run_at(tours, base, i, 2);
+        }
+        if (this.wrap(j+1) == i)
+        {
+            return this.reverse_run_at(tours, base, j, 2);
+        }
+
+        int a = tours[base+i];
+        int b = tours[base+j];
+        int pa = tours[base + this.wrap(i-1)];
+        int na = tours[base + this.wrap(i+1)];
+        int pb = tours[base + this.wrap(j-1)];
+        int nb = tours[base + this.wrap(j+1)];
+        tours[base+i] = b;
+        tours[base+j] = a;
+        return dist.dist(pa, b) + dist.dist(b, na) + dist.dist(pb, a) + dist.dist(a, nb)
+            - dist.dist(pa, a) - dist.dist(a, na) - dist.dist(pb, b) - dist.dist(b, nb);
+    }
+
+    /*Take the city at position from out and put it back in so that it ends up at position to, shifting the ones in between.
+    The shift is O(|from-to|) but the change in length, which is returned, is found in O(1)*/
+    int insert_at(int[] tours, int base, int from, int to)
+    {
+        int n = this.n;
+        if (from == to)
+        {
+            return 0;
+        }
+        int x = tours[base+from];
+
+        int change = 0;
+        // moving the first city to the end or back is a rotation, which is the same cycle
+        boolean rotation = (from == 0 && to == n-1) || (from == n-1 && to == 0);
+        if (!rotation && n > 3)
+        {
+            // take x out from between p and q...
+            int p = tours[base + this.wrap(from-1)];
+            int q = tours[base + this.wrap(from+1)];
+            // ...and put it between l and r
+            int l = to > from ? tours[base+to] : tours[base + this.wrap(to-1)];
+            int r = to > from ? tours[base + this.wrap(to+1)] : tours[base+to];
+            change = dist.dist(p, q) - dist.dist(p, x) - dist.dist(x, q)
+                + dist.dist(l, x) + dist.dist(x, r) - dist.dist(l, r);
+        }
+
+        if (to > from)
+        {
+            System.arraycopy(tours, base+from+1, tours, base+from, to-from);
+        }
+        else
+        {
+            System.arraycopy(tours, base+to, tours, base+to+1, from-to);
+        }
+        tours[base+to] = x;
+        return change;
+    }
+
+    /*Reverse the count cities starting at position start, wrapping around the end. If the rest of the tour is shorter, reverse that instead, which is the same cycle.
+    Returns the change in length, since only the two edges at the ends change*/
+    int reverse_run_at(int[] tours, int base, int start, int count)
+    {
+        int n = this.n;
+        // reversing all of the cities, or all but one of them, gives the same cycle
+        if (count >= n-1 || count < 2)
+        {
+            return 0;
+        }
+
+        int before = tours[base + this.wrap(start-1)];
+        int first = tours[base+start];
+        int last = tours[base + this.wrap(start+count-1)];
+        int after = tours[base + this.wrap(start+count)];
+        int change = dist.dist(before, last) + dist.dist(first, after) - dist.dist(before, first) - dist.dist(last, after);
+
+        if (2*count > n)
+        {
+            start = this.wrap(start+count);
+            count = n - count;
+        }
+        int i = start;
+        int j = this.wrap(start+count-1);
+        for (int swaps = count/2; swaps > 0; swaps--)
+        {
+            int temp = tours[base+i];
+            tours[base+i] = tours[base+j];
+            tours[base+j] = temp;
+            i = i+1 == n ? 0 : i+1;
+            j = j == 0 ? n-1 : j-1;
+        }
+        return change;
+    }
+
+    /*A position taken around the tour*/
+    private int wrap(int i)
+    {
+        if (i < 0)
+        {
+            return i + this.n;
+        }
+        if (i >= this.n)
+        {
+            return i - this.n;
+        }
+        return i;
+    }
+
+    /*Fisher-Yates shuffle of the first length ints of array, driven by one of our random streams, since Collections.shuffle only takes a java.util.Random*/
+    static void shuffle(int[] array, int length, SplittableRandom rng)
+    {
+        for (int i = length-1; i > 0; i--)
+        {
+            int j = rng.nextInt(i+1);
+            int t = array[i];
+            array[i] = array[j];
+            array[j] = t;
         }
-        return result;
     }
 
     /*Converts an ArrayList of Integers to an array on ints. WHY is there not a builtin method for this!?*/
@@ -270,123 +1241,203 @@ public class GeneticSolver
         return intArray;
     }
 
-    /*Used to compare the which of two neighbors is closer to a certain city*/
-    private class NeighborComparator implements Comparator<Integer>
+    /*Used to represent a graph, in order to implement the Nearest Neighbor Crossover.
+    All of its buffers are allocated once and reused for every child, so breeding doesn't make any garbage*/
+    class Graph implements Crossover
     {
-        Integer from;
-
-        public NeighborComparator(Integer fromCity)
+        // the union of two tours has degree at most 4, so the neighbors of city c live in edges[4c, 4c+degree[c])
+        final int[] edges = new int[4*n];
+        final int[] degree = new int[n];
+        // the cities that aren't on the tour yet, in no particular order. unvisited[0, remaining) are the live ones
+        final int[] unvisited = new int[n];
+        // where each city is in unvisited. A city has been visited iff where[city] >= remaining
+        final int[] where = new int[n];
+        int remaining;
+        // room for a child and its parents, for when they can't be used where they are
+        final int[] tour = new int[n];
+        final int[] parent1 = new int[n];
+        final int[] parent2 = new int[n];
+
+        /* Make this graph be the union of the two tours*/
+        public void union(int[] t1, int[] t2)
         {
-            this.from = fromCity;
+            this.union(t1, 0, t2, 0);
         }
 
-        @Override
-        public int compare(Integer neighbor1, Integer neighbor2) 
+        /* The same, for tours that start at base1 of t1 and base2 of t2*/
+        public void union(int[] t1, int base1, int[] t2, int base2)
         {
-            return adj[this.from][neighbor1]-adj[this.from][neighbor2];
+            Arrays.fill(this.degree, 0);
+            int last = n-1;
+            for (int i = 0; i < n; i++)
+            {
+                int next = i == last ? 0 : i+1;
+                this.add_edge(t1[base1+i], t1[base1+next]);
+                this.add_edge(t2[base2+i], t2[base2+next]);
+            }
         }
-    }
-
-    /*Used to represent a graph, in order to implement the Nearest Neighbor Crossover*/
-    private class Graph
-    {
-        int n;
-        Map<Integer, HashSet<Integer>> edges;
 
-        /* Make this graph be the union of the thwo paths*/
-        public void union(Path p1, Path p2)
+        /*Adds the undirected edge (a, b) unless it's already there*/
+        private void add_edge(int a, int b)
         {
-            // init our n and edges
-            this.n = p1.cities.length;
-            this.edges = new HashMap<Integer, HashSet<Integer>>();
-            for (int i = 0; i < this.n; i++)
+            int base = 4*a;
+            for (int i = 0; i < this.degree[a]; i++)
             {
-                this.edges.put(i, new HashSet<Integer>());
+                if (this.edges[base+i] == b)
+                {
+                    return;
+                }
             }
+            this.edges[base + this.degree[a]++] = b;
+            this.edges[4*b + this.degree[b]++] = a;
+        }
 
-            // populate our neighbor set
-            int v1, v2;
-            for (int i = 0; i < this.n; i++)
+        /*Nearest Neighbor Crossover: the NNA over the union of the two parents*/
+        public int cross(int[] t1, int base1, int length1, int[] t2, int base2, int[] child, int base, SplittableRandom rng)
+        {
+            long clock = SolverMetrics.ENABLED ? System.nanoTime() : 0;
+            this.union(t1, base1, t2, base2);
+            if (SolverMetrics.ENABLED)
+            {
+                clock = SolverMetrics.GLOBAL.lap(SolverMetrics.UNION, clock);
+            }
+            int length = this.NNA(child, base, rng);
+            if (SolverMetrics.ENABLED)
             {
-                v1 = p1.cities[i];
-                v2 = p1.cities[(i+1)%this.n];
-                this.edges.get(v1).add(v2);
-                this.edges.get(v2).add(v1);
-
-                v1 = p2.cities[i];
-                v2 = p2.cities[(i+1)%this.n];
-                this.edges.get(v1).add(v2);
-                this.edges.get(v2).add(v1);
+                SolverMetrics.GLOBAL.lap(SolverMetrics.NNA, clock);
             }
+            return length;
         }
 
-        /*Start at a random city and try to complete a tour, greedily choosing the nearest neighbor in the union graph. Use edges from the complete graph if necessary*/
-        public Path NNA() 
+        /*Start at a random city and try to complete a tour, greedily choosing the nearest neighbor in the union graph. Use edges from the complete graph if necessary.
+        Writes the tour into path and returns its length*/
+        public int NNA(int[] path, SplittableRandom rng)
         {
-            // init our result
-            ArrayList<Integer> path = new ArrayList<Integer>();
+            return this.NNA(path, 0, rng);
+        }
 
-            // choose a starting city
-            Integer starting_city = rn.nextInt(n);
-            path.add(starting_city);
+        /*The same, writing the tour into path from base on*/
+        public int NNA(int[] path, int base, SplittableRandom rng)
+        {
+            // every city starts out unvisited
+            for (int i = 0; i < n; i++)
+            {
+                this.unvisited[i] = i;
+                this.where[i] = i;
+            }
+            this.remaining = n;
 
-            // set up our set of visited cities
-            HashSet<Integer> visited = new HashSet<Integer>();
-            visited.add(starting_city);
+            // choose a starting city
+            int starting_city = rng.nextInt(n);
+            path[base] = starting_city;
+            this.visit(starting_city);
 
-            
             // until the path is complete
-            Integer prev_city;
-            while(path.size() < this.n)
+            int length = 0;
+            int prev_city = starting_city;
+            // how often the union graph had nothing left for us, for the metrics
+            int candidate_fallbacks = 0;
+            int scan_fallbacks = 0;
+            for (int size = 1; size < n; size++)
             {
-
-                // get the last city in our partial tour
-                prev_city = path.get(path.size()-1);
-
-                // get all the connected cities, and sort them from closest to furthest
-                ArrayList<Integer> candidates = new ArrayList<Integer> (edges.get(prev_city));
-                candidates.sort( new NeighborComparator(prev_city) );
-
-                // try to add them to the path
-                boolean success = false;
-                for (Integer neighbor: candidates)
+                // the closest unvisited neighbor in the union graph
+                int next_city = -1;
+                int next_dist = Integer.MAX_VALUE;
+                int neighbors = 4*prev_city;
+                for (int i = 0; i < this.degree[prev_city]; i++)
                 {
-                    // make sure we haven't visited this city yet.
-                    // otherwise, check the next closest city
-                    if (!visited.contains(neighbor))
+                    int neighbor = this.edges[neighbors+i];
+                    if (this.is_visited(neighbor))
                     {
-                        path.add(neighbor);
-                        visited.add(neighbor);
-                        success = true;
-                        break;
+                        continue;
+                    }
+                    int d = dist.dist(prev_city, neighbor);
+                    if (d < next_dist)
+                    {
+                        next_city = neighbor;
+                        next_dist = d;
                     }
                 }
-                // check to see if we succeeded in adding the neighbors from the union graph
-                // if so, we don't need the next step
-                if (success) {continue;}
 
-                // if we couldn't add any of the neighbors in the union graph, resort to adding from the complete graph
-                ArrayList<Integer> complete_graph_neighbors = nearest.get(prev_city);
-                for (Integer neighbor: complete_graph_neighbors)
+                // if we couldn't add any of the neighbors in the union graph, resort to the nearest neighbors in the complete graph
+                if (next_city == -1)
                 {
-                    if (!visited.contains(neighbor))
+                    candidate_fallbacks++;
+                    for (int rank = 0; rank < nearest.k(); rank++)
+                    {
+                        int neighbor = nearest.get(prev_city, rank);
+                        if (!this.is_visited(neighbor))
+                        {
+                            next_city = neighbor;
+                            break;
+                        }
+                    }
+                    // all of those are used up too, so search every unvisited city
+                    if (next_city == -1)
                     {
-                        path.add(neighbor);
-                        visited.add(neighbor);
-                        break;
+                        scan_fallbacks++;
+                        next_city = this.nearest_unvisited(prev_city);
                     }
+                    next_dist = dist.dist(prev_city, next_city);
                 }
 
+                path[base+size] = next_city;
+                this.visit(next_city);
+                length += next_dist;
+                prev_city = next_city;
             }
 
-            // make a Path from our list of cities
-            Path p = new Path(path);
-            return p;
+            if (SolverMetrics.ENABLED)
+            {
+                SolverMetrics.GLOBAL.count_nna(candidate_fallbacks, scan_fallbacks);
+            }
+            // add in the edge to return to the first city
+            return length + dist.dist(prev_city, starting_city);
+        }
+
+        private boolean is_visited(int city)
+        {
+            return this.where[city] >= this.remaining;
+        }
+
+        /*Swap city to the end of the unvisited cities and shrink them by one*/
+        private void visit(int city)
+        {
+            int last = this.unvisited[--this.remaining];
+            int slot = this.where[city];
+            this.unvisited[slot] = last;
+            this.where[last] = slot;
+            this.unvisited[this.remaining] = city;
+            this.where[city] = this.remaining;
+        }
+
+        /*The closest city to from that hasn't been visited yet*/
+        private int nearest_unvisited(int from)
+        {
+            int best = -1;
+            int best_dist = Integer.MAX_VALUE;
+            for (int i = 0; i < this.remaining; i++)
+            {
+                int city = this.unvisited[i];
+                int d = dist.dist(from, city);
+                if (d < best_dist)
+                {
+                    best = city;
+                    best_dist = d;
+                }
+            }
+            return best;
         }
 
         public String toString()
         {
-            return this.edges.toString();
+            StringBuilder sb = new StringBuilder("{");
+            for (int city = 0; city < n; city++)
+            {
+                sb.append(city).append("=").append(Arrays.toString(Arrays.copyOfRange(this.edges, 4*city, 4*city + this.degree[city])));
+                sb.append(city < n-1 ? ", " : "}");
+            }
+            return sb.toString();
         }
 
     }
@@ -399,12 +1450,19 @@ public class GeneticSolver
         public int length;
 
         public Path(int[] cities)
+        {
+            this(cities, -1);
+        }
+
+        /*For when we already know the length of the tour, so it doesn't have to be evaluated again. A negative length means we don't*/
+        public Path(int[] cities, int length)
         {
             this.cities = cities;
             this.n_cities = cities.length;
-            this.length = this.evaluate();
+            this.length = length < 0 ? this.evaluate() : length;
 
             assert this.isValid();
+            assert this.length_is_correct() : "a path was given the wrong length";
         }
 
         public Path(ArrayList<Integer> citiesAL)
@@ -412,22 +1470,39 @@ public class GeneticSolver
             this(convert(citiesAL));
         }
 
+        /*A copy of other, that doesn't share its array of cities*/
+        public Path(Path other)
+        {
+            this.cities = other.cities.clone();
+            this.n_cities = other.n_cities;
+            this.length = other.length;
+        }
+
+        /*Overwrite this path with a tour of the same instance, and re-evaluate it*/
+        public void copy_from(int[] tour)
+        {
+            System.arraycopy(tour, 0, this.cities, 0, this.n_cities);
+            this.length = this.evaluate();
+        }
+
+        /*Overwrite this path with the cities and length of other, without allocating*/
+        public void copy_from(Path other)
+        {
+            System.arraycopy(other.cities, 0, this.cities, 0, this.n_cities);
+            this.length = other.length;
+        }
+
+        /*Overwrite this path with tour i of pop, and its length*/
+        public void copy_from(Population pop, int i)
+        {
+            pop.read(i, this.cities, 0);
+            this.length = pop.length(i);
+        }
+
         /*computes the length of the path*/
-        private int evaluate()
+        int evaluate()
         {
-            int score = 0;
-            int from, to;
-            for (int i = 0; i<this.n_cities-1; i++)
-            {
-                from = this.cities[i];
-                to = this.cities[i+1];
-                score += adj[from][to];
-            }
-            // add in the edge to return to first city
-            int last_city = this.cities[this.n_cities-1];
-            int first_city = this.cities[0];
-            score += adj[last_city][first_city];
-            return score;
+            return tour_length(this.cities, 0);
         }
 
         /*for determining the natrual order of Paths, so they can be sorted easily*/
@@ -436,28 +1511,44 @@ public class GeneticSolver
             return this.length-other.length;
         }
 
-        /*mutate this path by reversing the subpath between 2 randomly selected cities*/
+        /*mutate this path with the solver's kind of mutation, between 2 randomly selected positions*/
         public void mutate()
         {
-            // get our two random cities
-            int c1 = rn.nextInt(this.n_cities);
-            int c2 = rn.nextInt(this.n_cities);
+            this.mutate(rn);
+        }
 
-            // make sure the cities are in order. Also, we don't have deal with wraparound because paths are symmetrical
-            int low = Math.min(c1,c2);
-            int high = Math.max(c1,c2);
+        public void mutate(SplittableRandom rng)
+        {
+            this.length += mutate_at(this.cities, 0, rng);
+            assert this.length_is_correct() : "mutation got the length wrong";
+        }
 
-            // reverse the path
-            int temp;
-            for (int i = 0; i <(high-low+1)/2; i++)
-            {
-                temp = this.cities[low+i];
-                this.cities[low+i] = this.cities[high-i];
-                this.cities[high-i] = temp;
-            }
+        /*Reverse the cities at positions i thru j, where i <= j. Only the two edges at the ends change, so the length is updated in O(1)*/
+        public void reverse(int i, int j)
+        {
+            this.length += reverse_run_at(this.cities, 0, i, j-i+1);
+            assert this.length_is_correct() : "reversal got the length wrong";
+        }
 
-            // update the length of this path
-            this.length = this.evaluate();
+        /*Swap the cities at positions i and j, updating the length in O(1)*/
+        public void swap(int i, int j)
+        {
+            this.length += swap_at(this.cities, 0, i, j);
+            assert this.length_is_correct() : "swap got the length wrong";
+        }
+
+        /*Take the city at position from out and put it back in so that it ends up at position to, shifting the ones in between.
+        The shift is O(|from-to|) but the length is updated in O(1)*/
+        public void insert(int from, int to)
+        {
+            this.length += insert_at(this.cities, 0, from, to);
+            assert this.length_is_correct() : "insert got the length wrong";
+        }
+
+        /*The debug check for the incremental length updates, run them with java -ea*/
+        boolean length_is_correct()
+        {
+            return this.length == this.evaluate();
         }
 
         public String toString()
@@ -468,16 +1559,16 @@ public class GeneticSolver
         /*Makes sure this is a real path that contains the cities 0 through n-1*/
         public boolean isValid()
         {
-            long total = 0;
+            boolean[] seen = new boolean[this.n_cities];
             for (int city:this.cities)
             {
-                total += Math.pow(2, city);
-            }
-            if (total == Math.pow(2, this.n_cities)-1)
-            {
-                return true;
+                if (city < 0 || city >= this.n_cities || seen[city])
+                {
+                    return false;
+                }
+                seen[city] = true;
             }
-            return false;
+            return true;
         }
     }
 
@@ -0,0 +1,53 @@
+/*
+GeoDistances.java
+TSPLIB's GEO distances: the coordinates are latitudes and longitudes in DDD.MM form, and the distance is
+along the surface of an idealized earth, in kilometers. The cities don't lie in a plane, so there are no coordinates to hand out.
+*/
+
+public class GeoDistances implements DistanceOracle
+{
+    // the values TSPLIB uses, rounding of pi included, so our lengths match the published optima
+    static final double PI = 3.141592;
+    static final double RADIUS = 6378.388;
+
+    // latitudes and longitudes in radians
+    final double[] lat;
+    final double[] lon;
+
+    public GeoDistances(double[] xs, double[] ys)
+    {
+        int n = xs.length;
+        this.lat = new double[n];
+        this.lon = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            this.lat[i] = radians(xs[i]);
+            this.lon[i] = radians(ys[i]);
+        }
+    }
+
+    /*DDD.MM degrees and minutes to radians*/
+    static double radians(double x)
+    {
+        int deg = (int) x;
+        double min = x - deg;
+        return PI * (deg + 5.0 * min / 3.0) / 180.0;
+    }
+
+    public int size()
+    {
+        return this.lat.length;
+    }
+
+    public int dist(int i, int j)
+    {
+        if (i == j)
+        {
+            return 0;
+        }
+        double q1 = Math.cos(this.lon[i] - this.lon[j]);
+        double q2 = Math.cos(this.lat[i] - this.lat[j]);
+        double q3 = Math.cos(this.lat[i] + this.lat[j]);
+        return (int) (RADIUS * Math.acos(0.5 * ((1.0 + q1) * q2 - (1.0 - q1) * q3)) + 1.0);
+    }
+}
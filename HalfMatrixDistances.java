@@ -0,0 +1,79 @@
+/*
+HalfMatrixDistances.java
+Caches every distance of a symmetric instance in the upper triangle of a matrix, stored as one flat array.
+Uses half the memory of a full matrix, so it is only worth it for small and medium instances.
+The matrix can also be kept off the heap, in an OffHeap arena.
+*/
+
+import java.nio.IntBuffer;
+
+public class HalfMatrixDistances implements DistanceOracle
+{
+    int n;
+    // where the distances came from, so we can still hand out coordinates. null if it has none, like an explicit
+    // matrix, which we'd only be keeping alive for nothing
+    DistanceOracle source;
+    // row i holds the distances from i to the cities i+1 thru n-1. null when the matrix is off the heap, in direct instead
+    int[] cache;
+    IntBuffer direct;
+    // where row i starts in cache, shifted so that row_start[i]+j is the index of (i, j)
+    int[] row_start;
+
+    public HalfMatrixDistances(DistanceOracle source)
+    {
+        this(source, null);
+    }
+
+    /*Keeps the matrix in memory from arena, unless it's null*/
+    public HalfMatrixDistances(DistanceOracle source, OffHeap arena)
+    {
+        this.source = source.coordinates() == null ? null : source;
+        this.n = source.size();
+        long cells = (long) this.n * (this.n-1) / 2;
+        if (cells > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalArgumentException("too many cities to cache a half matrix: " + this.n);
+        }
+
+        this.cache = arena == null ? new int[(int) cells] : null;
+        this.direct = arena == null ? null : arena.allocate_ints((int) cells);
+        this.row_start = new int[this.n];
+        int index = 0;
+        for (int i = 0; i < this.n; i++)
+        {
+            // row i covers columns i+1 thru n-1
+            this.row_start[i] = index - (i+1);
+            for (int j = i+1; j < this.n; j++)
+            {
+                if (this.cache != null)
+                {
+                    this.cache[index++] = source.dist(i, j);
+                }
+                else
+                {
+                    this.direct.put(index++, source.dist(i, j));
+                }
+            }
+        }
+    }
+
+    public int size()
+    {
+        return this.n;
+    }
+
+    public double[][] coordinates()
+    {
+        return this.source == null ? null : this.source.coordinates();
+    }
+
+    public int dist(int i, int j)
+    {
+        if (i == j)
+        {
+            return 0;
+        }
+        int index = i < j ? this.row_start[i] + j : this.row_start[j] + i;
+        return this.cache != null ? this.cache[index] : this.direct.get(index);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+InstanceCache.java
+Keeps parsed instances and their candidate lists in compact binary files, so a warm start skips the parsing and the
+nearest neighbor search. Files are named after the instance and a hash of the .tsp file, so an edited file never
+hits a stale entry, and they are memory mapped and checked against a CRC32 of their contents before being trusted.
+Anything wrong with an entry (old version, bad checksum, a different k) just means it gets rebuilt and rewritten.
+
+layout, all big endian:
+int magic, int version, long file hash, int n, int k, int flags, int length of the edge weight type, its bytes,
+then the x and y coordinates as doubles if flags has HAS_COORDS, the n by n explicit weights if flags has HAS_WEIGHTS,
+then the n*k candidates, and last an int CRC32 of everything before it.
+*/
+
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+public class InstanceCache
+{
+    // where the cache goes unless told otherwise
+    public static final String DEFAULT_DIR = "cache";
+
+    static final int MAGIC = 0x54535043; // "TSPC"
+    // bump this whenever the layout changes, old files then just get rebuilt
+    static final int VERSION = 1;
+    static final int HAS_COORDS = 1;
+    static final int HAS_WEIGHTS = 2;
+
+    /*What we know about one instance*/
+    public static class Entry
+    {
+        public TSPLIBFile problem;
+        public DistanceOracle dist;
+        public CandidateLists nearest;
+        // whether this came out of the cache, or had to be built
+        public boolean hit;
+    }
+
+    // null turns the cache off
+    final File dir;
+
+    public InstanceCache(String dir)
+    {
+        this.dir = dir == null ? null : new File(dir);
+    }
+
+    /*The instance with candidate lists of k neighbors, from the cache if it's there, otherwise built and written to the cache*/
+    public Entry load(String problem_file_path, int k) throws IOException
+    {
+        File source = new File(problem_file_path);
+        if (this.dir == null)
+        {
+            return build(TSPLIBFile.load(problem_file_path), k);
+        }
+
+        long hash = hash(source);
+        File file = new File(this.dir, TSP.instance_name(problem_file_path) + "-" + Long.toHexString(hash) + "-k" + k + ".bin");
+        if (file.isFile())
+        {
+            Entry cached = null;
+            try
+            {
+                cached = read(file, hash, k);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                System.err.println("ignoring broken cache entry " + file + ": " + e.getMessage());
+            }
+            if (cached != null)
+            {
+                return cached;
+            }
+        }
+
+        Entry entry = build(TSPLIBFile.load(problem_file_path), k);
+        try
+        {
+            write(file, hash, entry);
+        }
+        catch (IOException e)
+        {
+            // a read-only or full disk shouldn't stop the run
+            System.err.println("could not write cache entry " + file + ": " + e.getMessage());
+        }
+        return entry;
+    }
+
+    static Entry build(TSPLIBFile problem, int k)
+    {
+        Entry entry = new Entry();
+        entry.problem = problem;
+        entry.dist = TSP.make_distances(problem);
+        entry.nearest = new CandidateLists(entry.dist, k);
+        return entry;
+    }
+
+    /*The first 8 bytes of the SHA-256 of the file*/
+    static long hash(File source) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ))
+        {
+            digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /*Returns null if the entry is for another version, file or k*/
+    static Entry read(File file, long hash, int k) throws IOException
+    {
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buf.limit() < 36 || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getLong(8) != hash)
+        {
+            return null;
+        }
+
+        // check the whole body before believing any of it
+        int body = buf.limit() - 4;
+        CRC32 crc = new CRC32();
+        crc.update(buf.duplicate().position(0).limit(body));
+        if ((int) crc.getValue() != buf.getInt(body))
+        {
+            throw new IOException("checksum mismatch");
+        }
+
+        buf.position(16);
+        int n = buf.getInt();
+        int stored_k = buf.getInt();
+        int flags = buf.getInt();
+        // CandidateLists never keeps more neighbors than a city has, so that's what was stored for a small instance
+        if (stored_k != Math.max(0, Math.min(k, n-1)))
+        {
+            return null;
+        }
+        byte[] type = new byte[buf.getInt()];
+        buf.get(type);
+
+        TSPLIBFile problem = new TSPLIBFile();
+        problem.dimension = n;
+        problem.edge_weight_type = type.length == 0 ? null : new String(type, StandardCharsets.US_ASCII);
+        if ((flags & HAS_COORDS) != 0)
+        {
+            problem.xs = new double[n];
+            problem.ys = new double[n];
+            buf.asDoubleBuffer().get(problem.xs);
+            buf.position(buf.position() + 8*n);
+            buf.asDoubleBuffer().get(problem.ys);
+            buf.position(buf.position() + 8*n);
+        }
+        if ((flags & HAS_WEIGHTS) != 0)
+        {
+            problem.weights = new int[n][n];
+            for (int i = 0; i < n; i++)
+            {
+                buf.asIntBuffer().get(problem.weights[i]);
+                buf.position(buf.position() + 4*n);
+            }
+        }
+        int[] neighbors = new int[n * stored_k];
+        buf.asIntBuffer().get(neighbors);
+
+        Entry entry = new Entry();
+        entry.problem = problem;
+        entry.dist = TSP.make_distances(problem);
+        entry.nearest = new CandidateLists(n, stored_k, neighbors);
+        entry.hit = true;
+        return entry;
+    }
+
+    /*Writes to a temporary file and moves it into place, so other runs never see half an entry*/
+    static void write(File file, long hash, Entry entry) throws IOException
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(dir.toPath());
+        File temp = File.createTempFile(file.getName(), ".tmp", dir);
+        try
+        {
+            TSPLIBFile problem = entry.problem;
+            int n = problem.dimension;
+            int k = entry.nearest.k();
+            int flags = (problem.xs != null ? HAS_COORDS : 0) | (problem.weights != null ? HAS_WEIGHTS : 0);
+            byte[] type = problem.edge_weight_type == null ? new byte[0] : problem.edge_weight_type.getBytes(StandardCharsets.US_ASCII);
+
+            CRC32 crc = new CRC32();
+            try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16), crc)))
+            {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(hash);
+                out.writeInt(n);
+                out.writeInt(k);
+                out.writeInt(flags);
+                out.writeInt(type.length);
+                out.write(type);
+                if (problem.xs != null)
+                {
+                    for (double x: problem.xs)
+                    {
+                        out.writeDouble(x);
+                    }
+                    for (double y: problem.ys)
+                    {
+                        out.writeDouble(y);
+                    }
+                }
+                if (problem.weights != null)
+                {
+                    for (int[] row: problem.weights)
+                    {
+                        for (int w: row)
+                        {
+                            out.writeInt(w);
+                        }
+                    }
+                }
+                for (int i = 0; i < n*k; i++)
+                {
+                    out.writeInt(entry.nearest.get(i / k, i % k));
+                }
+                out.flush();
+                // the checksum itself isn't part of what it covers
+                out.writeInt((int) crc.getValue());
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+}
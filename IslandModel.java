@@ -0,0 +1,237 @@
+/*
+IslandModel.java
+Runs many GeneticSolver populations (islands) side by side, and every so often migrates the best individuals between them.
+The islands evolve independently on a pool of threads, so they only have to synchronize when migrating.
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class IslandModel
+{
+    /*Which islands send their migrants to which*/
+    public enum Topology
+    {
+        // island i sends to island i+1
+        RING,
+        // every island sends to every other island
+        FULL,
+        // every island sends to one other island, chosen at random each time
+        RANDOM
+    }
+
+    // the parameters of the model
+    public final int MIGRATION_INTERVAL;
+    public final int N_MIGRANTS;
+    public final Topology TOPOLOGY;
+
+    final GeneticSolver[] islands;
+    final ExecutorService executor;
+    SplittableRandom rn;
+
+    /*Makes n_islands solvers that share one set of candidate lists, and evolves them on a pool of threads.
+    Every interval generations each island sends copies of its n_migrants best tours along the topology*/
+    public IslandModel(DistanceOracle dist, int n_islands, int threads, Topology topology, int interval, int n_migrants, long seed)
+    {
+        this(dist, null, n_islands, threads, topology, interval, n_migrants, seed);
+    }
+
+    /*The same, with candidate lists that were already built, e.g. loaded from the InstanceCache. null builds new ones*/
+    public IslandModel(DistanceOracle dist, CandidateLists nearest, int n_islands, int threads, Topology topology, int interval, int n_migrants, long seed)
+    {
+        this(dist, nearest, new SolverConfig(), n_islands, threads, topology, interval, n_migrants, seed);
+    }
+
+    /*The same, with every island's solver made with the given parameters*/
+    public IslandModel(DistanceOracle dist, CandidateLists nearest, SolverConfig config, int n_islands, int threads, Topology topology, int interval,
+        int n_migrants, long seed)
+    {
+        this.MIGRATION_INTERVAL = interval;
+        this.N_MIGRANTS = n_migrants;
+        this.TOPOLOGY = topology;
+        this.rn = new SplittableRandom(seed);
+
+        this.islands = new GeneticSolver[n_islands];
+        for (int i = 0; i < n_islands; i++)
+        {
+            this.islands[i] = new GeneticSolver(dist, nearest, config);
+            this.islands[i].set_seed(this.rn.nextLong());
+            nearest = this.islands[i].nearest;
+        }
+
+        // daemon threads, so a forgotten model never keeps the JVM alive
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "island");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void initialize()
+    {
+        this.run_on_islands(island -> island.initialize());
+    }
+
+    public int get_generation()
+    {
+        return this.islands[0].get_generation();
+    }
+
+    public boolean should_continue()
+    {
+        return this.islands[0].should_continue();
+    }
+
+    /*The best individual any island has found so far*/
+    public GeneticSolver.Path fittest_individual()
+    {
+        GeneticSolver.Path best = null;
+        for (GeneticSolver island: this.islands)
+        {
+            GeneticSolver.Path p = island.best_so_far();
+            if (best == null || p.length < best.length)
+            {
+                best = p;
+            }
+        }
+        return best;
+    }
+
+    /*The average path length over all the islands*/
+    public int avg_fitness()
+    {
+        long total = 0;
+        for (GeneticSolver island: this.islands)
+        {
+            total += island.avg_fitness();
+        }
+        return (int) Math.round((double) total / this.islands.length);
+    }
+
+    /*Evolve every island for MIGRATION_INTERVAL generations (or until they are done), then migrate*/
+    public void step()
+    {
+        this.run_on_islands(island -> {
+            for (int i = 0; i < this.MIGRATION_INTERVAL && island.should_continue(); i++)
+            {
+                island.step();
+            }
+        });
+        this.migrate();
+    }
+
+    /*Copies of the best tours of the island that currently has the best individual, to send outside of this model*/
+    public int[][] migrants(int count)
+    {
+        GeneticSolver best = this.islands[0];
+        int best_length = best.fittest_individual().length;
+        for (GeneticSolver island: this.islands)
+        {
+            int length = island.fittest_individual().length;
+            if (length < best_length)
+            {
+                best = island;
+                best_length = length;
+            }
+        }
+        return best.migrants(count);
+    }
+
+    /*Let tours from outside of this model replace the worst individuals of a random island*/
+    public void accept_migrants(int[][] tours)
+    {
+        this.islands[this.rn.nextInt(this.islands.length)].accept_migrants(tours);
+    }
+
+    /*Stop the threads. The model can't be stepped after this*/
+    public void shutdown()
+    {
+        this.executor.shutdownNow();
+        for (GeneticSolver island: this.islands)
+        {
+            island.close();
+        }
+    }
+
+    /*Send the best tours of each island to its neighbors in the topology*/
+    private void migrate()
+    {
+        int m = this.islands.length;
+        if (m < 2 || this.N_MIGRANTS <= 0)
+        {
+            return;
+        }
+
+        // take all the emigrants first, so that no island receives migrants before sending its own
+        int[][][] emigrants = new int[m][][];
+        for (int i = 0; i < m; i++)
+        {
+            emigrants[i] = this.islands[i].migrants(this.N_MIGRANTS);
+        }
+
+        for (int i = 0; i < m; i++)
+        {
+            switch (this.TOPOLOGY)
+            {
+                case RING:
+                    this.islands[(i+1) % m].accept_migrants(emigrants[i]);
+                    break;
+                case FULL:
+                    for (int j = 0; j < m; j++)
+                    {
+                        if (j != i)
+                        {
+                            this.islands[j].accept_migrants(emigrants[i]);
+                        }
+                    }
+                    break;
+                case RANDOM:
+                    // any island but i
+                    int j = this.rn.nextInt(m-1);
+                    this.islands[j >= i ? j+1 : j].accept_migrants(emigrants[i]);
+                    break;
+            }
+        }
+    }
+
+    /*Something to do to every island*/
+    private interface IslandTask
+    {
+        void run(GeneticSolver island);
+    }
+
+    /*Run the task on every island in parallel, and wait for all of them to finish*/
+    private void run_on_islands(IslandTask task)
+    {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (GeneticSolver island: this.islands)
+        {
+            tasks.add(() -> {
+                task.run(island);
+                return null;
+            });
+        }
+        try
+        {
+            for (Future<Void> f: this.executor.invokeAll(tasks))
+            {
+                f.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while evolving the islands", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("an island failed", e.getCause());
+        }
+    }
+}
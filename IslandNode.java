@@ -0,0 +1,514 @@
+/*
+IslandNode.java
+Spreads one solve over several JVMs (or hosts). Every worker process hosts an IslandModel, and a coordinator relays
+migrant tours between the workers around a ring, keeps track of the global best, and tells everyone when to start and stop.
+Sending and receiving happen on their own threads, so local evolution never waits on the network.
+
+example usage, all on one machine:
+java IslandNode coordinate problems/pr1002.tsp 5000 2 60
+java IslandNode work problems/pr1002.tsp localhost 5000 4 2
+java IslandNode work problems/pr1002.tsp localhost 5000 4 2 -popsize 200 -crossover EAX -seeding MIXED
+Workers take the solver's flags (see SolverConfig) after the others, and every island of theirs is made with them.
+*/
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class IslandNode
+{
+    // the kinds of messages on the wire
+    static final byte HELLO = 1;
+    static final byte START = 2;
+    static final byte MIGRANTS = 3;
+    static final byte BEST = 4;
+    static final byte DONE = 5;
+    static final byte STOP = 6;
+
+    // how many generations between migrations, and how many tours each worker sends per migration
+    static final int MIGRATION_INTERVAL = 5;
+    static final int N_MIGRANTS = 2;
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        SolverConfig config;
+        if (args.length == 5 && args[0].equals("coordinate"))
+        {
+            DistanceOracle dist = TSP.load_distances(args[1]);
+            coordinate(dist, Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]) * 1000L, System.nanoTime());
+        }
+        else if (args.length >= 6 && args[0].equals("work") && (config = parse_config(args, 6)) != null)
+        {
+            InstanceCache.Entry instance = TSP.load_instance(args[1], InstanceCache.DEFAULT_DIR, config.n_candidates);
+            work(instance.dist, instance.nearest, config, args[2], Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+        }
+        else
+        {
+            System.out.println("usage: java IslandNode coordinate <problemfile> <port> <number of workers> <time limit in seconds>");
+            System.out.println("   or: java IslandNode work <problemfile> <coordinator host> <port> <islands> <threads>");
+            System.out.println("                            " + SolverConfig.USAGE.replace("\n", "\n                            "));
+            System.exit(1);
+        }
+    }
+
+    /*The solver flags from args[from] on, or null if there is one we don't know or the parameters don't make sense*/
+    static SolverConfig parse_config(String[] args, int from)
+    {
+        SolverConfig config = new SolverConfig();
+        try
+        {
+            for (int i = from; i < args.length; )
+            {
+                int used = config.parse(args, i);
+                if (used == 0)
+                {
+                    return null;
+                }
+                i += used;
+            }
+            return config.validate();
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e)
+        {
+            return null;
+        }
+    }
+
+    /*Wait for n_workers to connect, start them, relay their migrants around a ring, and return the best tour any of them found.
+    Workers are told to stop after time_limit milliseconds if they haven't finished by themselves*/
+    public static int[] coordinate(DistanceOracle dist, int port, int n_workers, long time_limit, long seed) throws IOException, InterruptedException
+    {
+        // every connection puts what it receives into this one queue, tagged with which worker it came from
+        BlockingQueue<Message> inbox = new LinkedBlockingQueue<Message>();
+        List<Connection> workers = new ArrayList<Connection>();
+
+        try (ServerSocketChannel server = ServerSocketChannel.open())
+        {
+            server.bind(new InetSocketAddress(port));
+            System.out.println("Waiting for " + n_workers + " workers on port " + port);
+            while (workers.size() < n_workers)
+            {
+                workers.add(new Connection(server.accept(), workers.size(), inbox, dist.size()));
+            }
+        }
+
+        // give every worker its own seed
+        SplittableRandom rn = new SplittableRandom(seed);
+        for (Connection c: workers)
+        {
+            c.send(Message.start(rn.nextLong()));
+        }
+
+        long deadline = System.currentTimeMillis() + time_limit;
+        boolean stopping = false;
+        // each worker counts once, when it says it's done or else when its connection drops
+        boolean[] done = new boolean[n_workers];
+        int n_done = 0;
+        int[] best = null;
+        int best_length = Integer.MAX_VALUE;
+        while (n_done < n_workers)
+        {
+            if (!stopping && System.currentTimeMillis() >= deadline)
+            {
+                for (Connection c: workers)
+                {
+                    c.send(Message.of(STOP));
+                }
+                stopping = true;
+            }
+
+            Message m = inbox.poll(100, TimeUnit.MILLISECONDS);
+            if (m == null)
+            {
+                continue;
+            }
+            switch (m.type)
+            {
+                case MIGRANTS:
+                    // pass them on to the next worker in the ring
+                    if (n_workers > 1)
+                    {
+                        workers.get((m.source+1) % n_workers).send(m);
+                    }
+                    break;
+                case BEST:
+                    if (m.length < best_length && valid_tour(m.tours[0], dist.size()))
+                    {
+                        best = m.tours[0];
+                        best_length = m.length;
+                        System.out.println("New global best of length " + best_length + " from worker " + m.source);
+                    }
+                    break;
+                case DONE:
+                case Message.CLOSED:
+                    // a finished worker closes its connection afterwards, which changes nothing. A connection that drops
+                    // before the worker is done means it's lost, and counts as done so we don't wait on it forever
+                    if (!done[m.source])
+                    {
+                        if (m.type == Message.CLOSED)
+                        {
+                            System.out.println("Lost worker " + m.source);
+                        }
+                        done[m.source] = true;
+                        n_done++;
+                    }
+                    break;
+            }
+        }
+
+        for (Connection c: workers)
+        {
+            c.send(Message.of(STOP));
+            c.close();
+        }
+        System.out.println("The best solution found has length " + best_length);
+        return best;
+    }
+
+    /*Connect to a coordinator, evolve islands until they finish or the coordinator says to stop, exchanging migrants along the way*/
+    public static void work(DistanceOracle dist, CandidateLists nearest, String host, int port, int n_islands, int threads) throws IOException, InterruptedException
+    {
+        work(dist, nearest, new SolverConfig(), host, port, n_islands, threads);
+    }
+
+    /*The same, with every island made with the given parameters*/
+    public static void work(DistanceOracle dist, CandidateLists nearest, SolverConfig config, String host, int port, int n_islands, int threads)
+        throws IOException, InterruptedException
+    {
+        BlockingQueue<Message> inbox = new LinkedBlockingQueue<Message>();
+        Connection coordinator = new Connection(SocketChannel.open(new InetSocketAddress(host, port)), 0, inbox, dist.size());
+        coordinator.send(Message.of(HELLO));
+
+        // wait to be started
+        Message m = inbox.take();
+        while (m.type != START)
+        {
+            if (m.type == STOP || m.type == Message.CLOSED)
+            {
+                coordinator.close();
+                return;
+            }
+            m = inbox.take();
+        }
+
+        IslandModel model = new IslandModel(dist, nearest, config, n_islands, threads, IslandModel.Topology.RING, MIGRATION_INTERVAL, N_MIGRANTS, m.seed);
+        model.initialize();
+        boolean stopped = false;
+        while (model.should_continue() && !stopped)
+        {
+            model.step();
+
+            // take in whatever arrived while we were evolving, without waiting for more
+            while ((m = inbox.poll()) != null)
+            {
+                if (m.type == MIGRANTS && all_valid(m.tours, dist.size()))
+                {
+                    model.accept_migrants(m.tours);
+                }
+                else if (m.type == STOP || m.type == Message.CLOSED)
+                {
+                    stopped = true;
+                }
+            }
+
+            coordinator.send(Message.tours(MIGRANTS, 0, model.migrants(N_MIGRANTS)));
+            GeneticSolver.Path best = model.fittest_individual();
+            coordinator.send(Message.tours(BEST, best.length, new int[][] {best.cities}));
+            System.out.println("Generation " + model.get_generation() + " best " + best.length + " average " + model.avg_fitness());
+        }
+        model.shutdown();
+
+        coordinator.send(Message.of(DONE));
+        // wait for the coordinator to acknowledge, so our last messages get flushed
+        while (!stopped)
+        {
+            m = inbox.poll(10, TimeUnit.SECONDS);
+            stopped = m == null || m.type == STOP || m.type == Message.CLOSED;
+        }
+        coordinator.close();
+    }
+
+    static boolean all_valid(int[][] tours, int n)
+    {
+        for (int[] tour: tours)
+        {
+            if (!valid_tour(tour, n))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*Makes sure a tour from the network is a permutation of 0 thru n-1*/
+    static boolean valid_tour(int[] tour, int n)
+    {
+        if (tour.length != n)
+        {
+            return false;
+        }
+        boolean[] seen = new boolean[n];
+        for (int city: tour)
+        {
+            if (city < 0 || city >= n || seen[city])
+            {
+                return false;
+            }
+            seen[city] = true;
+        }
+        return true;
+    }
+
+    /*One message on the wire. Framed as [int payload size][byte type][payload]*/
+    static class Message
+    {
+        // not sent over the wire: put in the inbox when a connection drops
+        static final byte CLOSED = -1;
+
+        byte type;
+        // which connection this came in on
+        int source;
+        // START's seed
+        long seed;
+        // BEST's tour length
+        int length;
+        // MIGRANTS' and BEST's tours
+        int[][] tours;
+
+        static Message of(byte type)
+        {
+            Message m = new Message();
+            m.type = type;
+            return m;
+        }
+
+        static Message start(long seed)
+        {
+            Message m = of(START);
+            m.seed = seed;
+            return m;
+        }
+
+        static Message tours(byte type, int length, int[][] tours)
+        {
+            Message m = of(type);
+            m.length = length;
+            m.tours = tours;
+            return m;
+        }
+
+        /*Tours are sent as [int count][int n][byte width][cities], where width is 2 bytes per city when the instance is small enough, otherwise 4*/
+        ByteBuffer encode()
+        {
+            int size = 1;
+            int n = 0;
+            int width = 4;
+            if (this.type == START)
+            {
+                size += 8;
+            }
+            else if (this.tours != null)
+            {
+                n = this.tours.length > 0 ? this.tours[0].length : 0;
+                width = n <= 0xFFFF ? 2 : 4;
+                size += 4 + 4 + 4 + 1 + this.tours.length * n * width;
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(4 + size);
+            buf.putInt(size);
+            buf.put(this.type);
+            if (this.type == START)
+            {
+                buf.putLong(this.seed);
+            }
+            else if (this.tours != null)
+            {
+                buf.putInt(this.length);
+                buf.putInt(this.tours.length);
+                buf.putInt(n);
+                buf.put((byte) width);
+                for (int[] tour: this.tours)
+                {
+                    for (int city: tour)
+                    {
+                        if (width == 2)
+                        {
+                            buf.putShort((short) city);
+                        }
+                        else
+                        {
+                            buf.putInt(city);
+                        }
+                    }
+                }
+            }
+            buf.flip();
+            return buf;
+        }
+
+        /*Reads a message of tours of n cities. Anything that doesn't add up, e.g. from a peer solving another instance,
+        is an IOException, checked before any tours are allocated*/
+        static Message decode(ByteBuffer buf, int source, int n_cities) throws IOException
+        {
+            Message m = of(buf.get());
+            m.source = source;
+            if (m.type == START)
+            {
+                m.seed = buf.getLong();
+            }
+            else if (m.type == MIGRANTS || m.type == BEST)
+            {
+                m.length = buf.getInt();
+                int count = buf.getInt();
+                int n = buf.getInt();
+                int width = buf.get();
+                if (count < 1 || n != n_cities || (width != 2 && width != 4) || (long) count * n * width != buf.remaining())
+                {
+                    throw new IOException("bad message: " + count + " tours of " + n + " cities, " + width + " bytes a city, in "
+                        + buf.remaining() + " bytes, expecting tours of " + n_cities + " cities");
+                }
+                m.tours = new int[count][n];
+                for (int[] tour: m.tours)
+                {
+                    for (int i = 0; i < n; i++)
+                    {
+                        tour[i] = width == 2 ? (buf.getShort() & 0xFFFF) : buf.getInt();
+                    }
+                }
+            }
+            return m;
+        }
+    }
+
+    /*A socket with a thread that reads messages into an inbox, and a thread that writes whatever is queued in its outbox*/
+    static class Connection
+    {
+        // no message we send is anywhere near this big, so anything larger means the stream is corrupt
+        static final int MAX_FRAME = 64 << 20;
+
+        final SocketChannel channel;
+        final int id;
+        // how many cities the tours we receive should have
+        final int n_cities;
+        final BlockingQueue<Message> inbox;
+        final BlockingQueue<Message> outbox = new LinkedBlockingQueue<Message>();
+        volatile boolean open = true;
+
+        Connection(SocketChannel channel, int id, BlockingQueue<Message> inbox, int n_cities) throws IOException
+        {
+            this.channel = channel;
+            this.id = id;
+            this.n_cities = n_cities;
+            this.inbox = inbox;
+            this.channel.socket().setTcpNoDelay(true);
+
+            Thread reader = new Thread(this::read_loop, "island-reader-" + id);
+            reader.setDaemon(true);
+            reader.start();
+            Thread writer = new Thread(this::write_loop, "island-writer-" + id);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        /*Queue a message to be sent. Never blocks*/
+        void send(Message m)
+        {
+            if (this.open)
+            {
+                this.outbox.add(m);
+            }
+        }
+
+        /*Stop once everything queued so far has been sent*/
+        void close()
+        {
+            this.outbox.add(Message.of(Message.CLOSED));
+        }
+
+        private void read_loop()
+        {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            try
+            {
+                while (true)
+                {
+                    header.clear();
+                    read_fully(header);
+                    int size = header.getInt(0);
+                    if (size <= 0 || size > MAX_FRAME)
+                    {
+                        throw new IOException("bad frame size " + size);
+                    }
+                    ByteBuffer body = ByteBuffer.allocate(size);
+                    read_fully(body);
+                    body.flip();
+                    this.inbox.add(Message.decode(body, this.id, this.n_cities));
+                }
+            }
+            catch (IOException | RuntimeException e)
+            {
+                // the peer went away, we closed the channel ourselves, or it sent something we can't read.
+                // Whatever it was, nothing more comes from this peer
+            }
+            finally
+            {
+                Message closed = Message.of(Message.CLOSED);
+                closed.source = this.id;
+                this.inbox.add(closed);
+            }
+        }
+
+        private void read_fully(ByteBuffer buf) throws IOException
+        {
+            while (buf.hasRemaining())
+            {
+                if (this.channel.read(buf) < 0)
+                {
+                    throw new EOFException();
+                }
+            }
+        }
+
+        private void write_loop()
+        {
+            try
+            {
+                while (true)
+                {
+                    Message m = this.outbox.take();
+                    if (m.type == Message.CLOSED)
+                    {
+                        break;
+                    }
+                    ByteBuffer buf = m.encode();
+                    while (buf.hasRemaining())
+                    {
+                        this.channel.write(buf);
+                    }
+                }
+            }
+            catch (IOException | InterruptedException e)
+            {
+                // nothing more can be sent
+            }
+            this.open = false;
+            try
+            {
+                this.channel.close();
+            }
+            catch (IOException e)
+            {
+                // already closed
+            }
+        }
+    }
+}
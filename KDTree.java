@@ -0,0 +1,259 @@
+/*
+KDTree.java
+A 2-d tree over the city coordinates, for answering nearest neighbor queries without looking at every city
+*/
+
+public class KDTree
+{
+    // ranges of at most this many cities are left as unsorted buckets
+    static final int BUCKET_SIZE = 8;
+
+    final double[] xs;
+    final double[] ys;
+    // the cities, arranged so that the range [lo, hi) of a node is split at its middle element
+    final int[] order;
+    // for each middle element, whether its node is split on x (0) or y (1)
+    final byte[] split_dim;
+
+    public KDTree(double[] xs, double[] ys)
+    {
+        this.xs = xs;
+        this.ys = ys;
+        int n = xs.length;
+        this.order = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            this.order[i] = i;
+        }
+        this.split_dim = new byte[n];
+        this.build(0, n);
+    }
+
+    public int size()
+    {
+        return this.order.length;
+    }
+
+    /*Arrange order[lo, hi) into a subtree. Splits on whichever axis is more spread out*/
+    private void build(int lo, int hi)
+    {
+        if (hi - lo <= BUCKET_SIZE)
+        {
+            return;
+        }
+
+        double min_x = Double.POSITIVE_INFINITY, max_x = Double.NEGATIVE_INFINITY;
+        double min_y = Double.POSITIVE_INFINITY, max_y = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < hi; i++)
+        {
+            int city = this.order[i];
+            min_x = Math.min(min_x, this.xs[city]);
+            max_x = Math.max(max_x, this.xs[city]);
+            min_y = Math.min(min_y, this.ys[city]);
+            max_y = Math.max(max_y, this.ys[city]);
+        }
+        byte dim = (byte) (max_x - min_x >= max_y - min_y ? 0 : 1);
+
+        int mid = (lo + hi) >>> 1;
+        this.select(lo, hi-1, mid, dim == 0 ? this.xs : this.ys);
+        this.split_dim[mid] = dim;
+
+        this.build(lo, mid);
+        this.build(mid+1, hi);
+    }
+
+    /*Quickselect: rearrange order[lo..hi] so that the element at k is where it would be if sorted by coord*/
+    private void select(int lo, int hi, int k, double[] coord)
+    {
+        while (hi > lo)
+        {
+            double pivot = coord[this.order[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j)
+            {
+                while (coord[this.order[i]] < pivot) i++;
+                while (coord[this.order[j]] > pivot) j--;
+                if (i <= j)
+                {
+                    int temp = this.order[i];
+                    this.order[i] = this.order[j];
+                    this.order[j] = temp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j)
+            {
+                hi = j;
+            }
+            else if (k >= i)
+            {
+                lo = i;
+            }
+            else
+            {
+                return;
+            }
+        }
+    }
+
+    /*Write the k nearest cities to city (not counting city itself) into out, closest first. Returns how many were found*/
+    public int k_nearest(int city, int k, int[] out, Search search)
+    {
+        search.reset(city, k);
+        if (search.k == 0)
+        {
+            // there's no worst city to beat in an empty heap, and nothing to find
+            return 0;
+        }
+        this.search(0, this.order.length, search);
+        return search.drain(out);
+    }
+
+    private void search(int lo, int hi, Search s)
+    {
+        if (hi - lo <= BUCKET_SIZE)
+        {
+            for (int i = lo; i < hi; i++)
+            {
+                s.offer(this.order[i]);
+            }
+            return;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        int city = this.order[mid];
+        s.offer(city);
+
+        double diff = this.split_dim[mid] == 0 ? s.qx - this.xs[city] : s.qy - this.ys[city];
+        // look in the side of the split that the query point is on first
+        if (diff < 0)
+        {
+            this.search(lo, mid, s);
+            if (diff*diff < s.worst())
+            {
+                this.search(mid+1, hi, s);
+            }
+        }
+        else
+        {
+            this.search(mid+1, hi, s);
+            if (diff*diff < s.worst())
+            {
+                this.search(lo, mid, s);
+            }
+        }
+    }
+
+    /*Reusable scratch space for one query at a time: a bounded max-heap of the best cities found so far*/
+    public class Search
+    {
+        int query;
+        double qx, qy;
+        int k;
+        int size;
+        int[] heap_cities;
+        double[] heap_dists;
+
+        public Search(int max_k)
+        {
+            this.heap_cities = new int[max_k];
+            this.heap_dists = new double[max_k];
+        }
+
+        void reset(int city, int k)
+        {
+            this.query = city;
+            this.qx = xs[city];
+            this.qy = ys[city];
+            this.k = Math.min(k, this.heap_cities.length);
+            this.size = 0;
+        }
+
+        /*The squared distance a city has to beat to get into the heap*/
+        double worst()
+        {
+            return this.size < this.k ? Double.POSITIVE_INFINITY : this.heap_dists[0];
+        }
+
+        void offer(int city)
+        {
+            if (city == this.query || this.k == 0)
+            {
+                return;
+            }
+            double dx = xs[city] - this.qx;
+            double dy = ys[city] - this.qy;
+            double d = dx*dx + dy*dy;
+
+            if (this.size < this.k)
+            {
+                // sift up
+                int i = this.size++;
+                while (i > 0)
+                {
+                    int parent = (i-1) >>> 1;
+                    if (this.heap_dists[parent] >= d)
+                    {
+                        break;
+                    }
+                    this.heap_dists[i] = this.heap_dists[parent];
+                    this.heap_cities[i] = this.heap_cities[parent];
+                    i = parent;
+                }
+                this.heap_dists[i] = d;
+                this.heap_cities[i] = city;
+            }
+            else if (d < this.heap_dists[0])
+            {
+                this.replace_top(city, d);
+            }
+        }
+
+        /*Put a new element at the top of the heap and sift it down*/
+        private void replace_top(int city, double d)
+        {
+            int i = 0;
+            while (true)
+            {
+                int child = 2*i + 1;
+                if (child >= this.size)
+                {
+                    break;
+                }
+                if (child+1 < this.size && this.heap_dists[child+1] > this.heap_dists[child])
+                {
+                    child++;
+                }
+                if (this.heap_dists[child] <= d)
+                {
+                    break;
+                }
+                this.heap_dists[i] = this.heap_dists[child];
+                this.heap_cities[i] = this.heap_cities[child];
+                i = child;
+            }
+            this.heap_dists[i] = d;
+            this.heap_cities[i] = city;
+        }
+
+        /*Empty the heap into out, closest city first*/
+        int drain(int[] out)
+        {
+            int found = this.size;
+            while (this.size > 0)
+            {
+                out[this.size-1] = this.heap_cities[0];
+                this.size--;
+                int last_city = this.heap_cities[this.size];
+                double last_dist = this.heap_dists[this.size];
+                if (this.size > 0)
+                {
+                    this.replace_top(last_city, last_dist);
+                }
+            }
+            return found;
+        }
+    }
+}
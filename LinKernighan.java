@@ -0,0 +1,205 @@
+/*
+LinKernighan.java
+A Lin-Kernighan style local search. Starting from a city t1 and one of its tour neighbors t2, it keeps breaking the edge
+(t1, t2), connecting t2 to one of its nearest neighbors t3, and breaking an edge (t3, t4) next to it, as long as what was
+broken outweighs what was added. Every step is a 2-opt move on the tour, so the chain can be as deep as it likes, and
+the steps past the best closing point are undone at the end. Works on any Tour, so for large instances every step is O(sqrt(n)).
+Not thread safe, every thread needs its own LinKernighan.
+*/
+
+import java.util.Arrays;
+
+public class LinKernighan implements TourImprover
+{
+    // how many 2-opt moves one chain can make
+    static final int MAX_DEPTH = 50;
+    // how many moves to make between checking the clock
+    static final int CLOCK_INTERVAL = 16;
+
+    final DistanceOracle dist;
+    final CandidateLists nearest;
+    final int n;
+    final Tour tour;
+
+    // the chain of the current move: at depth i we had t2s[i], and picked t3s[i] and t4s[i]
+    final int[] t2s = new int[MAX_DEPTH];
+    final int[] t3s = new int[MAX_DEPTH];
+    final int[] t4s = new int[MAX_DEPTH];
+    // the number of the move each city was last used as a t3 in, so no city gets picked twice in one chain
+    final int[] used;
+    int move;
+
+    // the cities whose don't-look bits are off, as a circular queue
+    final int[] queue;
+    final boolean[] queued;
+    int head, count;
+
+    public LinKernighan(DistanceOracle dist, CandidateLists nearest)
+    {
+        this.dist = dist;
+        this.nearest = nearest;
+        this.n = dist.size();
+        this.tour = Tour.for_size(this.n);
+        this.used = new int[this.n];
+        this.queue = new int[this.n];
+        this.queued = new boolean[this.n];
+    }
+
+    public int improve(int[] cities, long deadline)
+    {
+        if (this.n < 8)
+        {
+            return 0;
+        }
+        this.tour.load(cities);
+        this.head = 0;
+        this.count = 0;
+        Arrays.fill(this.queued, false);
+        for (int city: cities)
+        {
+            this.push(city);
+        }
+
+        int total = 0;
+        int tries = 0;
+        while (this.count > 0)
+        {
+            if (++tries % CLOCK_INTERVAL == 0 && System.nanoTime() > deadline)
+            {
+                break;
+            }
+            int t1 = this.pop();
+            int gain = this.chain(t1, this.tour.next(t1));
+            if (gain <= 0)
+            {
+                gain = this.chain(t1, this.tour.prev(t1));
+            }
+            if (gain > 0)
+            {
+                total -= gain;
+                this.push(t1);
+            }
+        }
+        this.tour.store(cities);
+        return total;
+    }
+
+    /*Builds a chain of 2-opt moves that starts by breaking (t1, t2), keeps the best prefix of it, and returns how much shorter that made the tour*/
+    private int chain(int t1, int t2)
+    {
+        this.move++;
+        // what we have broken minus what we have added so far, not counting the edge that closes the tour up
+        int g = this.dist.dist(t1, t2);
+        int best_gain = 0;
+        int best_depth = 0;
+        int depth = 0;
+
+        while (depth < MAX_DEPTH)
+        {
+            // pick the t3 near t2 that leaves us with the most to play with after breaking (t3, t4)
+            boolean forward = this.tour.next(t1) == t2;
+            int best_t3 = -1;
+            int best_t4 = -1;
+            int best_g = Integer.MIN_VALUE;
+            for (int rank = 0; rank < this.nearest.k(); rank++)
+            {
+                int t3 = this.nearest.get(t2, rank);
+                int g1 = g - this.dist.dist(t2, t3);
+                // neighbors are sorted, so the rest can only be worse
+                if (g1 <= 0)
+                {
+                    break;
+                }
+                if (t3 == t1 || this.used[t3] == this.move || t3 == this.tour.next(t2) || t3 == this.tour.prev(t2))
+                {
+                    continue;
+                }
+                // t4 has to be the neighbor of t3 on the t2 side, so that the 2-opt move keeps one cycle
+                int t4 = forward ? this.tour.prev(t3) : this.tour.next(t3);
+                if (t4 == t1)
+                {
+                    continue;
+                }
+                int g2 = g1 + this.dist.dist(t3, t4);
+                if (g2 > best_g)
+                {
+                    best_t3 = t3;
+                    best_t4 = t4;
+                    best_g = g2;
+                }
+            }
+            if (best_t3 == -1)
+            {
+                break;
+            }
+
+            // t1 t2 ... t4 t3  ->  t1 t4 ... t2 t3
+            this.two_opt_move(t1, t2, best_t4, best_t3);
+            this.t2s[depth] = t2;
+            this.t3s[depth] = best_t3;
+            this.t4s[depth] = best_t4;
+            this.used[best_t3] = this.move;
+            depth++;
+
+            g = best_g;
+            int closed = g - this.dist.dist(best_t4, t1);
+            if (closed > best_gain)
+            {
+                best_gain = closed;
+                best_depth = depth;
+            }
+            // (t1, t4) is the edge we break next
+            t2 = best_t4;
+        }
+
+        // undo everything after the best point, newest first
+        while (depth > best_depth)
+        {
+            depth--;
+            this.two_opt_move(t1, this.t4s[depth], this.t2s[depth], this.t3s[depth]);
+        }
+
+        for (int i = 0; i < best_depth; i++)
+        {
+            this.push(this.t2s[i]);
+            this.push(this.t3s[i]);
+            this.push(this.t4s[i]);
+        }
+        return best_gain;
+    }
+
+    /*Replace the tour edges (a, b) and (c, d) with (a, c) and (b, d), where going from b away from a reaches c before d*/
+    private void two_opt_move(int a, int b, int c, int d)
+    {
+        if (this.tour.next(a) == b)
+        {
+            this.tour.reverse(b, c);
+        }
+        else
+        {
+            this.tour.reverse(c, b);
+        }
+    }
+
+    /*Turn off the city's don't-look bit*/
+    private void push(int city)
+    {
+        if (this.queued[city])
+        {
+            return;
+        }
+        this.queued[city] = true;
+        int tail = this.head + this.count;
+        this.queue[tail >= this.n ? tail - this.n : tail] = city;
+        this.count++;
+    }
+
+    private int pop()
+    {
+        int city = this.queue[this.head];
+        this.head = this.head + 1 == this.n ? 0 : this.head + 1;
+        this.count--;
+        this.queued[city] = false;
+        return city;
+    }
+}
@@ -0,0 +1,291 @@
+/*
+LocalSearch.java
+Improves a tour in place with 2-opt and Or-opt moves, only trying to connect cities to their nearest neighbors.
+Uses don't-look bits: a city is only looked at again once one of the edges next to it changed.
+Every move is evaluated in O(1) from the few edges it adds and removes.
+Not thread safe, every thread needs its own LocalSearch.
+*/
+
+import java.util.Arrays;
+
+public class LocalSearch implements TourImprover
+{
+    // the longest segment that Or-opt moves
+    static final int MAX_SEGMENT = 3;
+    // how many moves to make between checking the clock
+    static final int CLOCK_INTERVAL = 64;
+
+    final DistanceOracle dist;
+    final CandidateLists nearest;
+    final int n;
+
+    // the tour being improved
+    final Tour tour;
+    // the cities whose don't-look bits are off, as a circular queue
+    final int[] queue;
+    final boolean[] queued;
+    int head, count;
+
+    public LocalSearch(DistanceOracle dist, CandidateLists nearest)
+    {
+        this.dist = dist;
+        this.nearest = nearest;
+        this.n = dist.size();
+        this.tour = Tour.for_size(this.n);
+        this.queue = new int[this.n];
+        this.queued = new boolean[this.n];
+    }
+
+    /*Improve tour in place until no move helps or System.nanoTime() passes deadline. Returns the change in length, which is never positive*/
+    public int improve(int[] cities, long deadline)
+    {
+        if (this.n < 5)
+        {
+            return 0;
+        }
+        this.tour.load(cities);
+        this.head = 0;
+        this.count = 0;
+        // a search that ran out of time can leave some bits behind
+        Arrays.fill(this.queued, false);
+        for (int city: cities)
+        {
+            this.push(city);
+        }
+
+        int total = 0;
+        int moves = 0;
+        while (this.count > 0)
+        {
+            if (++moves % CLOCK_INTERVAL == 0 && System.nanoTime() > deadline)
+            {
+                break;
+            }
+            int city = this.pop();
+            int delta = this.two_opt(city);
+            if (delta == 0)
+            {
+                delta = this.or_opt(city);
+            }
+            if (delta < 0)
+            {
+                total += delta;
+                // look at this city again, there might be more to gain
+                this.push(city);
+            }
+        }
+        this.tour.store(cities);
+        return total;
+    }
+
+    /*Tries to replace the edge from city to its successor (and then predecessor) with an edge to one of its nearest neighbors.
+    Makes the first improving move it finds and returns its delta, or 0 if there was none*/
+    private int two_opt(int a)
+    {
+        for (int dir = 0; dir < 2; dir++)
+        {
+            int b = dir == 0 ? this.next(a) : this.prev(a);
+            int d_ab = this.dist.dist(a, b);
+            for (int rank = 0; rank < this.nearest.k(); rank++)
+            {
+                int c = this.nearest.get(a, rank);
+                int d_ac = this.dist.dist(a, c);
+                // neighbors are sorted, so no later one can make up for this
+                if (d_ac >= d_ab)
+                {
+                    break;
+                }
+                int d = dir == 0 ? this.next(c) : this.prev(c);
+                if (c == b || d == a)
+                {
+                    continue;
+                }
+                int delta = d_ac + this.dist.dist(b, d) - d_ab - this.dist.dist(c, d);
+                if (delta < 0)
+                {
+                    // going forward: a b ... c d becomes a c ... b d. Going backward: d c ... b a becomes d b ... c a
+                    if (dir == 0)
+                    {
+                        this.reverse(b, c);
+                    }
+                    else
+                    {
+                        this.reverse(c, b);
+                    }
+                    this.push(a, b, c, d);
+                    return delta;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /*Tries to move a segment of up to MAX_SEGMENT cities that starts or ends at city to between one of city's nearest neighbors and that neighbor's successor or predecessor*/
+    private int or_opt(int city)
+    {
+        for (int length = 1; length <= MAX_SEGMENT; length++)
+        {
+            // the segment starting at city, then the segment ending at city
+            for (int end = 0; end < 2; end++)
+            {
+                int s1 = city;
+                int s2 = city;
+                for (int i = 1; i < length; i++)
+                {
+                    if (end == 0)
+                    {
+                        s2 = this.next(s2);
+                    }
+                    else
+                    {
+                        s1 = this.prev(s1);
+                    }
+                }
+                int delta = this.try_segment(s1, s2, length);
+                if (delta < 0)
+                {
+                    return delta;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /*Tries to move the segment s1 ... s2 (going forward) between two neighboring cities near one of its ends*/
+    private int try_segment(int s1, int s2, int length)
+    {
+        int p = this.prev(s1);
+        int nx = this.next(s2);
+        if (nx == p || this.n - length < 3)
+        {
+            return 0;
+        }
+        // what we save by taking the segment out
+        int removed = this.dist.dist(p, s1) + this.dist.dist(s2, nx) - this.dist.dist(p, nx);
+        if (removed <= 0)
+        {
+            return 0;
+        }
+
+        for (int e = 0; e < 2; e++)
+        {
+            int end = e == 0 ? s1 : s2;
+            for (int rank = 0; rank < this.nearest.k(); rank++)
+            {
+                int c = this.nearest.get(end, rank);
+                // the new edge alone costs more than we save
+                if (this.dist.dist(end, c) >= removed)
+                {
+                    break;
+                }
+                if (this.tour.between(s1, c, s2))
+                {
+                    continue;
+                }
+                // put the segment between c and its successor, or between its predecessor and c
+                for (int side = 0; side < 2; side++)
+                {
+                    int left = side == 0 ? c : this.prev(c);
+                    int right = side == 0 ? this.next(c) : c;
+                    if (left == s2 || right == s1 || this.tour.between(s1, left, s2) || this.tour.between(s1, right, s2))
+                    {
+                        continue;
+                    }
+                    int d_lr = this.dist.dist(left, right);
+                    // left s2 ... s1 right, or left s1 ... s2 right
+                    int reversed = this.dist.dist(left, s2) + this.dist.dist(s1, right) - d_lr;
+                    int straight = this.dist.dist(left, s1) + this.dist.dist(s2, right) - d_lr;
+                    int added = Math.min(reversed, straight);
+                    if (added < removed)
+                    {
+                        this.move_segment(s1, s2, left, right, straight < reversed);
+                        this.push(p, nx, s1, s2);
+                        this.push(left, right);
+                        return added - removed;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /*Move s1 ... s2 to between left and right, where right = next(left), as a sequence of reversals.
+    A reversal might flip which way the tour goes, so after the first one we check the orientation before each reversal*/
+    private void move_segment(int s1, int s2, int left, int right, boolean keep_direction)
+    {
+        // p s1 ... s2 nx ... left right  ->  p left ... nx s2 ... s1 right  ->  p nx ... left s2 ... s1 right
+        int p = this.prev(s1);
+        int nx = this.next(s2);
+        this.reverse(s1, left);
+        if (this.next(p) == left)
+        {
+            this.reverse(left, nx);
+        }
+        else
+        {
+            this.reverse(nx, left);
+        }
+        if (keep_direction)
+        {
+            if (this.next(left) == s2)
+            {
+                this.reverse(s2, s1);
+            }
+            else
+            {
+                this.reverse(s1, s2);
+            }
+        }
+    }
+
+    private int next(int city)
+    {
+        return this.tour.next(city);
+    }
+
+    private int prev(int city)
+    {
+        return this.tour.prev(city);
+    }
+
+    private void reverse(int from, int to)
+    {
+        this.tour.reverse(from, to);
+    }
+
+    private void push(int a, int b, int c, int d)
+    {
+        this.push(a);
+        this.push(b);
+        this.push(c);
+        this.push(d);
+    }
+
+    private void push(int a, int b)
+    {
+        this.push(a);
+        this.push(b);
+    }
+
+    /*Turn off the city's don't-look bit*/
+    private void push(int city)
+    {
+        if (this.queued[city])
+        {
+            return;
+        }
+        this.queued[city] = true;
+        int tail = this.head + this.count;
+        this.queue[tail >= this.n ? tail - this.n : tail] = city;
+        this.count++;
+    }
+
+    private int pop()
+    {
+        int city = this.queue[this.head];
+        this.head = this.head + 1 == this.n ? 0 : this.head + 1;
+        this.count--;
+        this.queued[city] = false;
+        return city;
+    }
+}
@@ -0,0 +1,24 @@
+/*
+MatrixDistances.java
+Wraps a full adjacency matrix, like the one made by TSP.compute_distances
+*/
+
+public class MatrixDistances implements DistanceOracle
+{
+    final int[][] adj;
+
+    public MatrixDistances(int[][] adj)
+    {
+        this.adj = adj;
+    }
+
+    public int size()
+    {
+        return this.adj.length;
+    }
+
+    public int dist(int i, int j)
+    {
+        return this.adj[i][j];
+    }
+}
@@ -0,0 +1,102 @@
+/*
+OffHeap.java
+An arena of memory outside the Java heap, for the big tables of a run: the tours of a population, and the distance and
+candidate tables of an instance. The garbage collector never has to scan or move what is in here, so a run's heap stays
+the same size however many cities or tours it has. Everything allocated from an arena is freed together when it is closed,
+so open one with try-with-resources around whatever uses it, and don't touch its buffers after that.
+(The Foreign Function & Memory API isn't final in Java 17, so this is built from direct ByteBuffers.)
+
+Direct memory is limited to the maximum heap size unless told otherwise, so give big runs -XX:MaxDirectMemorySize.
+*/
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class OffHeap implements AutoCloseable
+{
+    // frees a direct buffer right away. null if this JVM doesn't let us, then the buffers are freed when they are collected
+    static final MethodHandle FREE = find_cleaner();
+
+    final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    long bytes;
+    boolean closed;
+
+    /*count ints, all zero, in the platform's byte order so reading them costs no more than reading an array*/
+    public synchronized IntBuffer allocate_ints(int count)
+    {
+        if (this.closed)
+        {
+            throw new IllegalStateException("the arena is closed");
+        }
+        if (count > Integer.MAX_VALUE / 4)
+        {
+            throw new IllegalArgumentException("can't allocate " + count + " ints in one buffer");
+        }
+        ByteBuffer buf = ByteBuffer.allocateDirect(4 * count).order(ByteOrder.nativeOrder());
+        this.buffers.add(buf);
+        this.bytes += buf.capacity();
+        return buf.asIntBuffer();
+    }
+
+    /*How much this arena holds*/
+    public synchronized long bytes()
+    {
+        return this.bytes;
+    }
+
+    /*Frees everything at once*/
+    public synchronized void close()
+    {
+        if (this.closed)
+        {
+            return;
+        }
+        this.closed = true;
+        for (ByteBuffer buf: this.buffers)
+        {
+            free(buf);
+        }
+        this.buffers.clear();
+        this.bytes = 0;
+    }
+
+    private static void free(ByteBuffer buf)
+    {
+        if (FREE == null)
+        {
+            return;
+        }
+        try
+        {
+            FREE.invoke(buf);
+        }
+        catch (Throwable e)
+        {
+            // then the collector will free it
+        }
+    }
+
+    /*sun.misc.Unsafe.invokeCleaner, the only way to free a direct buffer on demand before the FFM API*/
+    private static MethodHandle find_cleaner()
+    {
+        try
+        {
+            Class<?> unsafe_class = Class.forName("sun.misc.Unsafe");
+            Field field = unsafe_class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            return MethodHandles.lookup().findVirtual(unsafe_class, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class)).bindTo(unsafe);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            return null;
+        }
+    }
+}
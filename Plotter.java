@@ -3,8 +3,9 @@ Plotter.java
 Nick Crews
 4/7/16
 A lot of this code stolen from https://stackoverflow.com/questions/16714738/xy-plotting-with-java
+Drawing never holds up the solver: tours are published to a TourChannel, and a Swing timer on the event thread draws
+whichever one is newest, at most MAX_FPS times a second. Generations that come faster than that are just skipped.
 */
-import java.util.ArrayList;
 import java.io.File;
 import java.io.IOException;
 
@@ -18,19 +19,34 @@ import org.jfree.ui.ApplicationFrame;
 import org.jfree.ui.RefineryUtilities;
 import org.jfree.chart.renderer.xy.XYLineAndShapeRenderer;
 import org.jfree.chart.plot.XYPlot;
-import org.jfree.data.xy.XYDataItem;
 import org.jfree.chart.labels.StandardXYItemLabelGenerator;
 import org.jfree.chart.ChartUtilities;
 import java.awt.BasicStroke;
 import java.awt.Color;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 
 @SuppressWarnings("serial")
 public class Plotter extends ApplicationFrame
     {
-    // the data for cities and optimal paths. other path Series are just stored in this.data
+    // how often the newest tour gets drawn, at most
+    static final int MAX_FPS = 30;
+    // tours with more cities than this are drawn through every k-th city. At the size of the window that looks much the same,
+    // and the chart stays quick to redraw however big the instance is
+    static final int MAX_POINTS = 5000;
+
+    // the data for cities, the optimal path, and the path being shown, which is reused for every tour we draw
     XYSeries cities;
     XYSeries optimal;
+    XYSeries path;
+    // [x, y] of every city, to look up the points of a tour
+    int[][] coords = new int[0][];
+
+    // where the tours to draw come from. Give it to GeneticSolver.publish_to(), or publish to it with show_path()
+    final TourChannel channel = new TourChannel();
+    // draws the newest tour in the channel, on the event thread
+    Timer timer;
    
     // where the series of data live
     XYSeriesCollection data;
@@ -48,9 +64,11 @@ public class Plotter extends ApplicationFrame
         // optimal is empty, and we don't display it yet until add_optimal_path() is called
         this.cities = new XYSeries("Cities", false);
         this.optimal = new XYSeries("NULL", false);
+        this.path = new XYSeries("Path", false);
         this.data = new XYSeriesCollection();
         this.data.addSeries(this.cities);
         this.data.addSeries(this.optimal);
+        this.data.addSeries(this.path);
 
         // the chart 
         this.chart = ChartFactory.createXYLineChart(
@@ -87,6 +105,9 @@ public class Plotter extends ApplicationFrame
             ));
         // make the optimal path invisible in the legend. we can change this if we actually add an potimal path
         this.renderer.setSeriesVisibleInLegend(1, false);
+        // paths are plain lines, and stay out of the legend until there is one
+        this.renderer.setSeriesShapesVisible(2, false);
+        this.renderer.setSeriesVisibleInLegend(2, false);
 
         // apply this renderer to the chart
         plot.setRenderer(this.renderer);
@@ -99,76 +120,51 @@ public class Plotter extends ApplicationFrame
         this.pack();          
         RefineryUtilities.centerFrameOnScreen(this);          
         this.setVisible(true);
+
+        // the timer coalesces its ticks, so a slow frame doesn't make the next ones pile up
+        this.timer = new Timer(1000 / MAX_FPS, e -> this.draw_latest());
+        this.timer.start();
+    }
+
+    /*Where to publish tours to be drawn*/
+    public TourChannel channel()
+    {
+        return this.channel;
     }
 
     /* Add the cities to our plot*/
     public void set_cities(int[][] cities_array)
     {
-        this.cities.clear();
-        int x, y;
-        for (int[] city: cities_array)
-        {
-            x=city[0];
-            y=city[1];
-            this.cities.add(x, y);
-        }
+        // the chart is only ever changed on the event thread, where it gets drawn
+        SwingUtilities.invokeLater(() -> {
+            this.coords = cities_array;
+            this.cities.setNotify(false);
+            this.cities.clear();
+            for (int[] city: cities_array)
+            {
+                this.cities.add(city[0], city[1], false);
+            }
+            this.cities.setNotify(true);
+        });
     }
 
     /* Add the optimal path to our plot. Optional*/
     public void add_optimal_path(GeneticSolver.Path p)
     {
-        int[] pathdata = p.cities;
-    
-        this.optimal.setKey("Optimal Path of Length " + p.length);
-        this.optimal.clear();
-
-        for (int cityindex: pathdata)
-        {
-            XYDataItem city = this.cities.getDataItem(cityindex);
-            int x = (int) city.getXValue();
-            int y = (int) city.getYValue();
-            this.optimal.add(x,y);
-        }
-        // and add in the first city again to make a loop
-        XYDataItem firstCity = this.cities.getDataItem(pathdata[0]);
-        int x = (int) firstCity.getXValue();
-        int y = (int) firstCity.getYValue();
-        this.optimal.add(x,y);
-
-        // make it so this actually show up
-        this.renderer.setSeriesVisibleInLegend(1, true);
+        int[] tour = p.cities.clone();
+        int length = p.length;
+        SwingUtilities.invokeLater(() -> {
+            this.optimal.setKey("Optimal Path of Length " + length);
+            this.trace(this.optimal, tour);
+            // make it so this actually show up
+            this.renderer.setSeriesVisibleInLegend(1, true);
+        });
     }
 
-    /* Add a path to our plot, labeled with a generation*/
+    /* Show a path on our plot, labeled with a generation. This only publishes a copy of it, which gets drawn on the next frame*/
     public void show_path(GeneticSolver.Path p, int gen)
     {
-        // remove the old paths
-        for (int i=2; i<this.data.getSeriesCount(); i++)
-        {
-            this.data.removeSeries(i);
-        }
-
-        // create a new series, with autosort disabled
-        String seriesTitle = gen>=0 ? "Fittest Individual in Generation " + gen + " of Length " + p.length : 
-            "Path of Length " + p.length;
-        XYSeries path = new XYSeries(seriesTitle, false);
-
-        for (int cityindex: p.cities)
-        {
-            XYDataItem city = this.cities.getDataItem(cityindex);
-            int x = (int) city.getXValue();
-            int y = (int) city.getYValue();
-            path.add(x,y);
-        }
-        // and add in the first city again to make a loop
-        XYDataItem firstCity = this.cities.getDataItem(p.cities[0]);
-        int x = (int) firstCity.getXValue();
-        int y = (int) firstCity.getYValue();
-        path.add(x,y);
-
-        // add this data series, and make it so it displays with no dots
-        this.data.addSeries(path);
-        this.renderer.setSeriesShapesVisible(this.data.getSeriesCount()-1, false);
+        this.channel.publish(new TourChannel.Snapshot(gen, p.length, p.cities.clone()));
     }
 
     /*In case you want to add a path with no generation label*/
@@ -177,6 +173,38 @@ public class Plotter extends ApplicationFrame
         this.show_path(p, -1);
     }
 
+    /*Draw the newest tour, if one came in since the last frame. The path series is refilled instead of replaced,
+    so there are never old paths to remove*/
+    private void draw_latest()
+    {
+        TourChannel.Snapshot latest = this.channel.take();
+        if (latest == null)
+        {
+            return;
+        }
+        String title = latest.generation >= 0 ? "Fittest Individual in Generation " + latest.generation + " of Length " + latest.length :
+            "Path of Length " + latest.length;
+        this.path.setKey(title);
+        this.trace(this.path, latest.tour);
+        this.renderer.setSeriesVisibleInLegend(2, true);
+    }
+
+    /*Make series go through the cities of tour and back to the first one, redrawing the chart once instead of once per city*/
+    private void trace(XYSeries series, int[] tour)
+    {
+        int step = (tour.length + MAX_POINTS - 1) / MAX_POINTS;
+        series.setNotify(false);
+        series.clear();
+        for (int i = 0; i < tour.length; i += step)
+        {
+            int[] city = this.coords[tour[i]];
+            series.add(city[0], city[1], false);
+        }
+        // and add in the first city again to make a loop
+        int[] first = this.coords[tour[0]];
+        series.add(first[0], first[1], false);
+        series.setNotify(true);
+    }
 
     /*Saves this plot to a file*/
     public boolean save(String filepath)
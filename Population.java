@@ -0,0 +1,152 @@
+/*
+Population.java
+The tours of one generation, struct-of-arrays style: every tour's cities in one flat int array, tour i in [i*n, i*n+n),
+and their lengths in a parallel array. A GeneticSolver keeps two of these and swaps them every generation, breeding the
+children straight into the spare one, so stepping never allocates a tour, and evaluation and crossover walk memory that is
+all in one place instead of chasing a pointer per tour.
+The tours can also live off the heap, in an OffHeap arena, so big populations don't weigh on the garbage collector.
+Then only the lengths are on the heap, and tours go in and out through read() and write().
+When the solver rejects duplicates it also keeps every tour's TourHash, in another parallel array.
+*/
+
+import java.nio.IntBuffer;
+
+public class Population
+{
+    final int size;
+    final int n;
+    // tour i is tours[i*n, i*n+n). null when the tours are off the heap, in direct instead
+    final int[] tours;
+    final IntBuffer direct;
+    final int[] lengths;
+    // the TourHash of each tour, kept up to date by the solver only when it rejects duplicates
+    final long[] hashes;
+
+    public Population(int size, int n)
+    {
+        this(size, n, null);
+    }
+
+    /*Keeps the tours in memory from arena, unless it's null*/
+    public Population(int size, int n, OffHeap arena)
+    {
+        if ((long) size * n > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("a population of " + size + " tours of " + n + " cities doesn't fit in one array");
+        }
+        this.size = size;
+        this.n = n;
+        this.tours = arena == null ? new int[size * n] : null;
+        this.direct = arena == null ? null : arena.allocate_ints(size * n);
+        this.lengths = new int[size];
+        this.hashes = new long[size];
+    }
+
+    /*Whether tours can be used directly*/
+    public boolean on_heap()
+    {
+        return this.tours != null;
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    /*Where tour i starts in tours*/
+    public int base(int i)
+    {
+        return i * this.n;
+    }
+
+    public int length(int i)
+    {
+        return this.lengths[i];
+    }
+
+    /*A copy of tour i*/
+    public int[] tour(int i)
+    {
+        int[] tour = new int[this.n];
+        this.read(i, tour, 0);
+        return tour;
+    }
+
+    /*Copies tour i into dst[base, base+n)*/
+    public void read(int i, int[] dst, int base)
+    {
+        if (this.tours != null)
+        {
+            System.arraycopy(this.tours, i * this.n, dst, base, this.n);
+        }
+        else
+        {
+            this.direct.get(i * this.n, dst, base, this.n);
+        }
+    }
+
+    /*Overwrite tour i with src[base, base+n), whose length is length*/
+    public void write(int i, int[] src, int base, int length)
+    {
+        if (this.tours != null)
+        {
+            System.arraycopy(src, base, this.tours, i * this.n, this.n);
+        }
+        else
+        {
+            this.direct.put(i * this.n, src, base, this.n);
+        }
+        this.lengths[i] = length;
+    }
+
+    /*Overwrite tour i with tour, whose length is length*/
+    public void set(int i, int[] tour, int length)
+    {
+        this.write(i, tour, 0, length);
+    }
+
+    /*Overwrite tour i with tour j of other, and its length and hash*/
+    public void copy_from(int i, Population other, int j)
+    {
+        this.hashes[i] = other.hashes[j];
+        if (other.tours != null)
+        {
+            this.write(i, other.tours, j * this.n, other.lengths[j]);
+        }
+        else if (this.tours != null)
+        {
+            other.read(j, this.tours, i * this.n);
+            this.lengths[i] = other.lengths[j];
+        }
+        else
+        {
+            this.direct.put(i * this.n, other.direct, j * this.n, this.n);
+            this.lengths[i] = other.lengths[j];
+        }
+    }
+
+    /*The index of the shortest tour, the first one if there are ties*/
+    public int fittest()
+    {
+        int best = 0;
+        for (int i = 1; i < this.size; i++)
+        {
+            if (this.lengths[i] < this.lengths[best])
+            {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /*The sum of the lengths, in a long since a big instance's tours add up past Integer.MAX_VALUE*/
+    public long total_length()
+    {
+        long total = 0;
+        for (int length: this.lengths)
+        {
+            total += length;
+        }
+        return total;
+    }
+}
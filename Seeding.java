@@ -0,0 +1,686 @@
+/*
+Seeding.java
+Builds the tours a solver starts from. Random permutations are full of crossings, and on big instances the GA spends its first
+dozens of generations just undoing them, so these construct tours that are already fairly good instead, each one randomized
+so that a population of them still has plenty of variety:
+NEAREST_NEIGHBOR: from a random city, go to the nearest unvisited one, now and then the second nearest, using the candidate lists.
+GREEDY: add the shortest candidate edges that keep every city at degree 2 or less and close no cycle, then join up the
+fragments nearest end first. The edge lengths get a little noise for every tour.
+HILBERT: visit the cities in the order of a space-filling curve over a randomly rotated copy of the plane. The fastest, and the worst.
+Needs coordinates, instances without them get NEAREST_NEIGHBOR tours instead.
+CHRISTOFIDES: a minimum spanning tree of the candidate edges, plus a greedy matching of its odd-degree cities instead of a
+perfect one, walked as an Euler tour with the repeated cities skipped. The matching and the walk are randomized.
+MIXED: a round robin of the four.
+RANDOM: random permutations, the way the solver always did it.
+Everything shared by the tours of one kind is worked out once, when the Seeding is made, after which it can build tours on any number of threads.
+*/
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class Seeding
+{
+    /*The ways starting tours can be built*/
+    public enum Kind
+    {
+        RANDOM,
+        NEAREST_NEIGHBOR,
+        GREEDY,
+        HILBERT,
+        CHRISTOFIDES,
+        MIXED
+    }
+
+    // the kinds MIXED takes turns with
+    static final Kind[] CONSTRUCTIVE = {Kind.NEAREST_NEIGHBOR, Kind.GREEDY, Kind.HILBERT, Kind.CHRISTOFIDES};
+    // how often the nearest neighbor tour takes the second nearest city instead of the nearest
+    static final double NN_DETOUR = .1;
+    // how much the greedy and the matching edges get stretched at random, at most
+    static final double NOISE = .1;
+    // the side of the grid the Hilbert curve runs over
+    static final int HILBERT_BITS = 16;
+
+    final Kind kind;
+    final int n;
+    final DistanceOracle dist;
+    final CandidateLists nearest;
+
+    // the candidate edges, each one once, for GREEDY and CHRISTOFIDES
+    int[] edge_a;
+    int[] edge_b;
+    int[] edge_length;
+    // the cities, for HILBERT. null if there are no coordinates
+    double[] xs;
+    double[] ys;
+    // the spanning tree, for CHRISTOFIDES, as n-1 edges
+    int[] tree_a;
+    int[] tree_b;
+
+    public Seeding(Kind kind, DistanceOracle dist, CandidateLists nearest)
+    {
+        this.kind = kind;
+        this.n = dist.size();
+        this.dist = dist;
+        this.nearest = nearest;
+        boolean mixed = kind == Kind.MIXED;
+        if (mixed || kind == Kind.GREEDY || kind == Kind.CHRISTOFIDES)
+        {
+            this.candidate_edges();
+        }
+        if (mixed || kind == Kind.HILBERT)
+        {
+            double[][] coords = dist.coordinates();
+            if (coords != null)
+            {
+                this.xs = coords[0];
+                this.ys = coords[1];
+            }
+        }
+        if (mixed || kind == Kind.CHRISTOFIDES)
+        {
+            this.spanning_tree();
+        }
+    }
+
+    /*The kind tour i of a population gets*/
+    public Kind kind_of(int i)
+    {
+        return this.kind == Kind.MIXED ? CONSTRUCTIVE[i % CONSTRUCTIVE.length] : this.kind;
+    }
+
+    /*Builds tour i of a population into tour, drawing from rng, which should be that tour's own stream*/
+    public void build(int i, int[] tour, SplittableRandom rng)
+    {
+        if (this.n < 4)
+        {
+            this.random(tour, rng);
+            return;
+        }
+        switch (this.kind_of(i))
+        {
+            case NEAREST_NEIGHBOR:
+                this.nearest_neighbor(tour, rng);
+                break;
+            case GREEDY:
+                this.greedy(tour, rng);
+                break;
+            case HILBERT:
+                if (this.xs != null)
+                {
+                    this.hilbert(tour, rng);
+                }
+                else
+                {
+                    this.nearest_neighbor(tour, rng);
+                }
+                break;
+            case CHRISTOFIDES:
+                this.christofides(tour, rng);
+                break;
+            default:
+                this.random(tour, rng);
+        }
+    }
+
+    private void random(int[] tour, SplittableRandom rng)
+    {
+        for (int i = 0; i < this.n; i++)
+        {
+            tour[i] = i;
+        }
+        GeneticSolver.shuffle(tour, this.n, rng);
+    }
+
+    private void nearest_neighbor(int[] tour, SplittableRandom rng)
+    {
+        Unvisited unvisited = new Unvisited(this.n);
+        int city = rng.nextInt(this.n);
+        tour[0] = city;
+        unvisited.visit(city);
+        for (int size = 1; size < this.n; size++)
+        {
+            // the first two unvisited candidates
+            int first = -1;
+            int second = -1;
+            for (int rank = 0; rank < this.nearest.k() && second == -1; rank++)
+            {
+                int c = this.nearest.get(city, rank);
+                if (!unvisited.visited(c))
+                {
+                    if (first == -1)
+                    {
+                        first = c;
+                    }
+                    else
+                    {
+                        second = c;
+                    }
+                }
+            }
+            int next;
+            if (first == -1)
+            {
+                next = unvisited.nearest(city, this.dist);
+            }
+            else
+            {
+                next = second != -1 && rng.nextDouble() < NN_DETOUR ? second : first;
+            }
+            tour[size] = next;
+            unvisited.visit(next);
+            city = next;
+        }
+    }
+
+    private void greedy(int[] tour, SplittableRandom rng)
+    {
+        int m = this.edge_a.length;
+        long[] order = this.noisy_order(m, rng);
+        // adj[2c] and adj[2c+1] are the fragment neighbors of c, -1 if none
+        int[] adj = new int[2 * this.n];
+        Arrays.fill(adj, -1);
+        int[] degree = new int[this.n];
+        UnionFind fragments = new UnionFind(this.n);
+        int added = 0;
+        for (int e = 0; e < m && added < this.n - 1; e++)
+        {
+            int index = (int) order[e];
+            int a = this.edge_a[index];
+            int b = this.edge_b[index];
+            if (degree[a] < 2 && degree[b] < 2 && fragments.union(a, b))
+            {
+                adj[2*a + degree[a]++] = b;
+                adj[2*b + degree[b]++] = a;
+                added++;
+            }
+        }
+        this.join_fragments(tour, adj, degree, rng);
+    }
+
+    /*Walk the path fragments in adj, and whenever one ends, jump to the nearest end of a fragment that hasn't been walked yet*/
+    private void join_fragments(int[] tour, int[] adj, int[] degree, SplittableRandom rng)
+    {
+        boolean[] visited = new boolean[this.n];
+        // the ends of every fragment, a lone city being both ends of its own
+        int[] ends = new int[this.n];
+        int n_ends = 0;
+        for (int c = 0; c < this.n; c++)
+        {
+            if (degree[c] < 2)
+            {
+                ends[n_ends++] = c;
+            }
+        }
+        int city = ends[rng.nextInt(n_ends)];
+        int size = 0;
+        while (true)
+        {
+            // walk to the other end of this fragment
+            int prev = -1;
+            while (true)
+            {
+                tour[size++] = city;
+                visited[city] = true;
+                int next = adj[2*city] != -1 && adj[2*city] != prev && !visited[adj[2*city]] ? adj[2*city]
+                    : adj[2*city+1] != -1 && adj[2*city+1] != prev && !visited[adj[2*city+1]] ? adj[2*city+1] : -1;
+                if (next == -1)
+                {
+                    break;
+                }
+                prev = city;
+                city = next;
+            }
+            if (size == this.n)
+            {
+                return;
+            }
+            // an unvisited city at degree 2 or less is the end of a fragment that hasn't been walked
+            int jump = -1;
+            for (int rank = 0; rank < this.nearest.k(); rank++)
+            {
+                int c = this.nearest.get(city, rank);
+                if (!visited[c] && degree[c] < 2)
+                {
+                    jump = c;
+                    break;
+                }
+            }
+            if (jump == -1)
+            {
+                int best = Integer.MAX_VALUE;
+                int kept = 0;
+                for (int i = 0; i < n_ends; i++)
+                {
+                    int c = ends[i];
+                    if (visited[c])
+                    {
+                        continue;
+                    }
+                    // drop the ends that are used up as we go, so later scans are shorter
+                    ends[kept++] = c;
+                    int d = this.dist.dist(city, c);
+                    if (d < best)
+                    {
+                        best = d;
+                        jump = c;
+                    }
+                }
+                n_ends = kept;
+            }
+            city = jump;
+        }
+    }
+
+    private void hilbert(int[] tour, SplittableRandom rng)
+    {
+        // a random rotation of the plane gives each tour its own curve
+        double angle = 2 * Math.PI * rng.nextDouble();
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+        double[] us = new double[this.n];
+        double[] vs = new double[this.n];
+        double min_u = Double.MAX_VALUE, min_v = Double.MAX_VALUE, max_u = -Double.MAX_VALUE, max_v = -Double.MAX_VALUE;
+        for (int i = 0; i < this.n; i++)
+        {
+            us[i] = cos * this.xs[i] - sin * this.ys[i];
+            vs[i] = sin * this.xs[i] + cos * this.ys[i];
+            min_u = Math.min(min_u, us[i]);
+            max_u = Math.max(max_u, us[i]);
+            min_v = Math.min(min_v, vs[i]);
+            max_v = Math.max(max_v, vs[i]);
+        }
+        int side = 1 << HILBERT_BITS;
+        double scale = (side - 1) / Math.max(1e-9, Math.max(max_u - min_u, max_v - min_v));
+        // the curve position in the high bits, so sorting these sorts the cities along the curve
+        long[] keys = new long[this.n];
+        for (int i = 0; i < this.n; i++)
+        {
+            int x = (int) ((us[i] - min_u) * scale);
+            int y = (int) ((vs[i] - min_v) * scale);
+            keys[i] = hilbert_index(side, x, y) << 31 | i;
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < this.n; i++)
+        {
+            tour[i] = (int) (keys[i] & Integer.MAX_VALUE);
+        }
+    }
+
+    /*How far along the Hilbert curve over a side by side grid the point (x, y) is*/
+    static long hilbert_index(int side, int x, int y)
+    {
+        long d = 0;
+        for (int s = side / 2; s > 0; s /= 2)
+        {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            // turn the quadrant so the curve inside it runs the right way
+            if (ry == 0)
+            {
+                if (rx == 1)
+                {
+                    x = side - 1 - x;
+                    y = side - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+    private void christofides(int[] tour, SplittableRandom rng)
+    {
+        int[] degree = new int[this.n];
+        for (int e = 0; e < this.n - 1; e++)
+        {
+            degree[this.tree_a[e]]++;
+            degree[this.tree_b[e]]++;
+        }
+        // match up the odd cities, shortest noisy candidate edge first, then whatever is left nearest first
+        int[] mate = new int[this.n];
+        Arrays.fill(mate, -1);
+        int m = this.edge_a.length;
+        long[] order = this.noisy_order(m, rng);
+        int n_matched = 0;
+        for (int e = 0; e < m; e++)
+        {
+            int index = (int) order[e];
+            int a = this.edge_a[index];
+            int b = this.edge_b[index];
+            if ((degree[a] & 1) == 1 && (degree[b] & 1) == 1 && mate[a] == -1 && mate[b] == -1)
+            {
+                mate[a] = b;
+                mate[b] = a;
+                n_matched += 2;
+            }
+        }
+        int[] left = new int[this.n];
+        int n_left = 0;
+        for (int c = 0; c < this.n; c++)
+        {
+            if ((degree[c] & 1) == 1 && mate[c] == -1)
+            {
+                left[n_left++] = c;
+            }
+        }
+        while (n_left > 0)
+        {
+            int a = left[--n_left];
+            int best = -1;
+            int best_dist = Integer.MAX_VALUE;
+            for (int i = 0; i < n_left; i++)
+            {
+                int d = this.dist.dist(a, left[i]);
+                if (d < best_dist)
+                {
+                    best_dist = d;
+                    best = i;
+                }
+            }
+            int b = left[best];
+            left[best] = left[--n_left];
+            mate[a] = b;
+            mate[b] = a;
+            n_matched += 2;
+        }
+
+        // the tree and the matching as one multigraph where every city has even degree, in compressed rows
+        int n_edges = this.n - 1 + n_matched / 2;
+        int[] from = new int[n_edges];
+        int[] to = new int[n_edges];
+        System.arraycopy(this.tree_a, 0, from, 0, this.n - 1);
+        System.arraycopy(this.tree_b, 0, to, 0, this.n - 1);
+        int e = this.n - 1;
+        for (int c = 0; c < this.n; c++)
+        {
+            if (mate[c] > c)
+            {
+                from[e] = c;
+                to[e] = mate[c];
+                e++;
+            }
+        }
+        int[] start = new int[this.n + 1];
+        for (int i = 0; i < n_edges; i++)
+        {
+            start[from[i] + 1]++;
+            start[to[i] + 1]++;
+        }
+        for (int c = 0; c < this.n; c++)
+        {
+            start[c + 1] += start[c];
+        }
+        int[] fill = Arrays.copyOf(start, this.n);
+        int[] incident = new int[2 * n_edges];
+        for (int i = 0; i < n_edges; i++)
+        {
+            incident[fill[from[i]]++] = i;
+            incident[fill[to[i]]++] = i;
+        }
+        // every city leaves by its edges in a random order, so the walks differ
+        for (int c = 0; c < this.n; c++)
+        {
+            for (int i = start[c + 1] - 1; i > start[c]; i--)
+            {
+                int j = start[c] + rng.nextInt(i - start[c] + 1);
+                int t = incident[i];
+                incident[i] = incident[j];
+                incident[j] = t;
+            }
+        }
+
+        // Hierholzer's walk, keeping each city the first time it comes up
+        boolean[] used = new boolean[n_edges];
+        boolean[] visited = new boolean[this.n];
+        int[] next_edge = Arrays.copyOf(start, this.n);
+        int[] stack = new int[n_edges + 1];
+        int top = 0;
+        stack[top++] = rng.nextInt(this.n);
+        int size = 0;
+        while (top > 0)
+        {
+            int c = stack[top - 1];
+            while (next_edge[c] < start[c + 1] && used[incident[next_edge[c]]])
+            {
+                next_edge[c]++;
+            }
+            if (next_edge[c] < start[c + 1])
+            {
+                int edge = incident[next_edge[c]++];
+                used[edge] = true;
+                stack[top++] = from[edge] == c ? to[edge] : from[edge];
+            }
+            else
+            {
+                top--;
+                if (!visited[c])
+                {
+                    visited[c] = true;
+                    tour[size++] = c;
+                }
+            }
+        }
+    }
+
+    /*The candidate edges, each once: a-b from a's list, unless a is also on b's list and b < a*/
+    private void candidate_edges()
+    {
+        int k = this.nearest.k();
+        int[] a = new int[this.n * k];
+        int[] b = new int[this.n * k];
+        int m = 0;
+        for (int c = 0; c < this.n; c++)
+        {
+            for (int rank = 0; rank < k; rank++)
+            {
+                int other = this.nearest.get(c, rank);
+                if (other < c && this.on_list(other, c))
+                {
+                    continue;
+                }
+                a[m] = c;
+                b[m] = other;
+                m++;
+            }
+        }
+        this.edge_a = Arrays.copyOf(a, m);
+        this.edge_b = Arrays.copyOf(b, m);
+        this.edge_length = new int[m];
+        for (int e = 0; e < m; e++)
+        {
+            this.edge_length[e] = this.dist.dist(a[e], b[e]);
+        }
+    }
+
+    private boolean on_list(int city, int other)
+    {
+        for (int rank = 0; rank < this.nearest.k(); rank++)
+        {
+            if (this.nearest.get(city, rank) == other)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*The indices of the candidate edges, in the low bits, sorted by their lengths stretched by up to NOISE at random*/
+    private long[] noisy_order(int m, SplittableRandom rng)
+    {
+        long[] order = new long[m];
+        for (int e = 0; e < m; e++)
+        {
+            float stretched = (float) (this.edge_length[e] * (1 + NOISE * rng.nextDouble()));
+            // non-negative floats sort the same as their bits
+            order[e] = (long) Float.floatToIntBits(stretched) << 32 | e;
+        }
+        Arrays.sort(order);
+        return order;
+    }
+
+    /*Kruskal's over the candidate edges. If they don't connect every city, the pieces get joined by their shortest edges, smallest piece first*/
+    private void spanning_tree()
+    {
+        int m = this.edge_a.length;
+        long[] order = new long[m];
+        for (int e = 0; e < m; e++)
+        {
+            order[e] = (long) this.edge_length[e] << 32 | e;
+        }
+        Arrays.sort(order);
+        this.tree_a = new int[this.n - 1];
+        this.tree_b = new int[this.n - 1];
+        UnionFind pieces = new UnionFind(this.n);
+        int size = 0;
+        for (int e = 0; e < m && size < this.n - 1; e++)
+        {
+            int index = (int) order[e];
+            if (pieces.union(this.edge_a[index], this.edge_b[index]))
+            {
+                this.tree_a[size] = this.edge_a[index];
+                this.tree_b[size] = this.edge_b[index];
+                size++;
+            }
+        }
+        while (size < this.n - 1)
+        {
+            // the smallest piece, and its shortest edge to any other
+            int smallest = -1;
+            for (int c = 0; c < this.n; c++)
+            {
+                if (pieces.find(c) == c && (smallest == -1 || pieces.size[c] < pieces.size[smallest]))
+                {
+                    smallest = c;
+                }
+            }
+            int best_a = -1;
+            int best_b = -1;
+            int best = Integer.MAX_VALUE;
+            for (int a = 0; a < this.n; a++)
+            {
+                if (pieces.find(a) != smallest)
+                {
+                    continue;
+                }
+                for (int b = 0; b < this.n; b++)
+                {
+                    if (pieces.find(b) != smallest)
+                    {
+                        int d = this.dist.dist(a, b);
+                        if (d < best)
+                        {
+                            best = d;
+                            best_a = a;
+                            best_b = b;
+                        }
+                    }
+                }
+            }
+            pieces.union(best_a, best_b);
+            this.tree_a[size] = best_a;
+            this.tree_b[size] = best_b;
+            size++;
+        }
+    }
+
+    /*The cities not on the tour yet, in a set that can be both checked and scanned quickly. The same trick as the NNA's*/
+    static class Unvisited
+    {
+        final int[] cities;
+        final int[] where;
+        int remaining;
+
+        Unvisited(int n)
+        {
+            this.cities = new int[n];
+            this.where = new int[n];
+            for (int i = 0; i < n; i++)
+            {
+                this.cities[i] = i;
+                this.where[i] = i;
+            }
+            this.remaining = n;
+        }
+
+        boolean visited(int city)
+        {
+            return this.where[city] >= this.remaining;
+        }
+
+        void visit(int city)
+        {
+            int last = this.cities[--this.remaining];
+            int slot = this.where[city];
+            this.cities[slot] = last;
+            this.where[last] = slot;
+            this.cities[this.remaining] = city;
+            this.where[city] = this.remaining;
+        }
+
+        int nearest(int from, DistanceOracle dist)
+        {
+            int best = -1;
+            int best_dist = Integer.MAX_VALUE;
+            for (int i = 0; i < this.remaining; i++)
+            {
+                int d = dist.dist(from, this.cities[i]);
+                if (d < best_dist)
+                {
+                    best_dist = d;
+                    best = this.cities[i];
+                }
+            }
+            return best;
+        }
+    }
+
+    static class UnionFind
+    {
+        final int[] parent;
+        final int[] size;
+
+        UnionFind(int n)
+        {
+            this.parent = new int[n];
+            this.size = new int[n];
+            for (int i = 0; i < n; i++)
+            {
+                this.parent[i] = i;
+                this.size[i] = 1;
+            }
+        }
+
+        int find(int x)
+        {
+            while (this.parent[x] != x)
+            {
+                this.parent[x] = this.parent[this.parent[x]];
+                x = this.parent[x];
+            }
+            return x;
+        }
+
+        /*Joins the sets of a and b, returns false if they were already one*/
+        boolean union(int a, int b)
+        {
+            a = this.find(a);
+            b = this.find(b);
+            if (a == b)
+            {
+                return false;
+            }
+            if (this.size[a] < this.size[b])
+            {
+                int t = a;
+                a = b;
+                b = t;
+            }
+            this.parent[b] = a;
+            this.size[a] += this.size[b];
+            return true;
+        }
+    }
+}
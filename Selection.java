@@ -0,0 +1,205 @@
+/*
+Selection.java
+Picks the persisters and the parents of a generation by looking only at an int array of tour lengths, so nothing gets sorted
+or allocated while a solver steps. The persisters are found with a quickselect, which is O(P) instead of the O(P log P) of sorting
+the population, and the parents are picked by index with one of these schemes:
+TOURNAMENT: the shortest of sample_size tours drawn at random, the way the solver always did it. Bigger samples select harder.
+RANK: linear ranking, the best tour is pressure times as likely as the average one and the worst 2 - pressure times,
+drawn by stochastic universal sampling. Only this one has to order the population, which it does on an array of longs.
+SUS: stochastic universal sampling proportional to how much shorter a tour is than the worst one, so there is
+as little noise as can be in how often each tour becomes a parent.
+Every solver needs its own, since it keeps scratch space.
+*/
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class Selection
+{
+    /*The ways parents can be selected*/
+    public enum Kind
+    {
+        TOURNAMENT,
+        RANK,
+        SUS
+    }
+
+    final Kind kind;
+    final int sample_size;
+    // for RANK, how many times as likely the best tour is to be picked as the average one, in [1, 2]
+    final double pressure;
+
+    // indices of the population, in the order the last quickselect left them
+    final int[] order;
+    // length << 32 | index, for ranking
+    final long[] keys;
+    // running totals of the weights, for stochastic universal sampling
+    final double[] weights;
+
+    public Selection(Kind kind, int popsize, int sample_size, double pressure)
+    {
+        this.kind = kind;
+        this.sample_size = sample_size;
+        this.pressure = pressure;
+        this.order = new int[popsize];
+        this.keys = kind == Kind.RANK ? new long[popsize] : null;
+        this.weights = kind == Kind.TOURNAMENT ? null : new double[popsize];
+    }
+
+    /*Returns indices of the population whose first count are those of the count shortest tours, in no particular order,
+    and the rest are those of the others. The array is reused by the next call*/
+    public int[] fittest(int[] lengths, int count)
+    {
+        int[] order = this.order;
+        for (int i = 0; i < order.length; i++)
+        {
+            order[i] = i;
+        }
+        int lo = 0;
+        int hi = order.length - 1;
+        // quickselect: narrow down on the range holding position count, until everything left of it is no longer than anything right of it
+        while (count > 0 && count < order.length && lo < hi)
+        {
+            int pivot = lengths[median_of_three(lengths, order, lo, (lo + hi) >>> 1, hi)];
+            int i = lo;
+            int j = hi;
+            while (i <= j)
+            {
+                while (lengths[order[i]] < pivot)
+                {
+                    i++;
+                }
+                while (lengths[order[j]] > pivot)
+                {
+                    j--;
+                }
+                if (i <= j)
+                {
+                    int t = order[i];
+                    order[i] = order[j];
+                    order[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            // now [lo, j] <= pivot <= [i, hi], and anything between j and i equals the pivot
+            if (count <= j)
+            {
+                hi = j;
+            }
+            else if (count > i)
+            {
+                lo = i;
+            }
+            else
+            {
+                break;
+            }
+        }
+        return order;
+    }
+
+    private static int median_of_three(int[] lengths, int[] order, int a, int b, int c)
+    {
+        int x = lengths[order[a]];
+        int y = lengths[order[b]];
+        int z = lengths[order[c]];
+        if (x < y)
+        {
+            return y < z ? order[b] : (x < z ? order[c] : order[a]);
+        }
+        return x < z ? order[a] : (y < z ? order[c] : order[b]);
+    }
+
+    /*Writes the indices of count parents into parents*/
+    public void select(int[] lengths, int[] parents, int count, SplittableRandom rng)
+    {
+        switch (this.kind)
+        {
+            case TOURNAMENT:
+                this.tournaments(lengths, parents, count, rng);
+                break;
+            case RANK:
+                this.rank(lengths, parents, count, rng);
+                break;
+            case SUS:
+                this.proportional(lengths, parents, count, rng);
+                break;
+        }
+    }
+
+    /*Draw sample_size tours with replacement, keep the shortest. Repeat until there are enough*/
+    private void tournaments(int[] lengths, int[] parents, int count, SplittableRandom rng)
+    {
+        int popsize = lengths.length;
+        for (int p = 0; p < count; p++)
+        {
+            int winner = rng.nextInt(popsize);
+            for (int s = 1; s < this.sample_size; s++)
+            {
+                int other = rng.nextInt(popsize);
+                if (lengths[other] < lengths[winner])
+                {
+                    winner = other;
+                }
+            }
+            parents[p] = winner;
+        }
+    }
+
+    private void rank(int[] lengths, int[] parents, int count, SplittableRandom rng)
+    {
+        int popsize = lengths.length;
+        for (int i = 0; i < popsize; i++)
+        {
+            this.keys[i] = (long) lengths[i] << 32 | i;
+        }
+        Arrays.sort(this.keys);
+        // rank r, counting from the best, weighs pressure - 2(pressure-1)r/(P-1)
+        double total = 0;
+        for (int r = 0; r < popsize; r++)
+        {
+            total += popsize == 1 ? 1 : this.pressure - 2 * (this.pressure - 1) * r / (popsize - 1);
+            this.weights[r] = total;
+        }
+        int k = 0;
+        double step = total / count;
+        double pointer = rng.nextDouble() * step;
+        for (int p = 0; p < count; p++, pointer += step)
+        {
+            while (k < popsize - 1 && this.weights[k] <= pointer)
+            {
+                k++;
+            }
+            parents[p] = (int) this.keys[k];
+        }
+    }
+
+    private void proportional(int[] lengths, int[] parents, int count, SplittableRandom rng)
+    {
+        int popsize = lengths.length;
+        int worst = 0;
+        for (int length: lengths)
+        {
+            worst = Math.max(worst, length);
+        }
+        // the worst tour still gets a little weight, so a converged population doesn't divide by zero
+        double total = 0;
+        for (int i = 0; i < popsize; i++)
+        {
+            total += worst - lengths[i] + 1;
+            this.weights[i] = total;
+        }
+        int k = 0;
+        double step = total / count;
+        double pointer = rng.nextDouble() * step;
+        for (int p = 0; p < count; p++, pointer += step)
+        {
+            while (k < popsize - 1 && this.weights[k] <= pointer)
+            {
+                k++;
+            }
+            parents[p] = k;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+SolverConfig.java
+The parameters of a GeneticSolver, with the defaults it always had. Setters return the config, so they chain:
+new SolverConfig().popsize(400).mutation_rate(.05)
+The same parameters can be given on the command line as flags, see parse(), and toString() writes them back as flags.
+*/
+
+import java.util.Locale;
+
+public class SolverConfig implements Cloneable
+{
+    int max_generation = 50;
+    double mutation_rate = .01;
+    int popsize = 100;
+    int sample_size = 2;
+    double parent_ratio = .5;
+    double persist_ratio = .05;
+    int n_candidates = GeneticSolver.DEFAULT_N_CANDIDATES;
+    GeneticSolver.Mutation mutation = GeneticSolver.Mutation.REVERSE;
+    double local_search_ratio = 0;
+    long local_search_budget_ms = 0;
+    TourImprover.Kind local_search_kind = TourImprover.Kind.OR_OPT;
+    Selection.Kind selection = Selection.Kind.TOURNAMENT;
+    double rank_pressure = 1.5;
+    Seeding.Kind seeding = Seeding.Kind.RANDOM;
+    double seeding_ratio = 1;
+    Crossover.Kind crossover = Crossover.Kind.NNX;
+    boolean dedup = false;
+    double immigration_entropy = 0;
+    double immigration_ratio = .5;
+    int threads = 1;
+
+    // the flags parse() understands, for usage messages
+    public static final String USAGE = "[-popsize p] [-mutation-rate r] [-max-generation g] [-sample-size s] [-parent-ratio r] [-persist-ratio r]\n"
+        + "[-candidates k] [-mutation REVERSE|SWAP|INSERT] [-local-search ratio budget_ms] [-local-search-kind OR_OPT|LIN_KERNIGHAN]\n"
+        + "[-selection TOURNAMENT|RANK|SUS] [-rank-pressure s] [-seeding RANDOM|NEAREST_NEIGHBOR|GREEDY|HILBERT|CHRISTOFIDES|MIXED] [-seeding-ratio r]\n"
+        + "[-crossover NNX|EAX] [-dedup] [-immigration entropy ratio] [-step-threads t]";
+
+    public SolverConfig max_generation(int max_generation)
+    {
+        this.max_generation = max_generation;
+        return this;
+    }
+
+    public SolverConfig mutation_rate(double mutation_rate)
+    {
+        this.mutation_rate = mutation_rate;
+        return this;
+    }
+
+    public SolverConfig popsize(int popsize)
+    {
+        this.popsize = popsize;
+        return this;
+    }
+
+    public SolverConfig sample_size(int sample_size)
+    {
+        this.sample_size = sample_size;
+        return this;
+    }
+
+    public SolverConfig parent_ratio(double parent_ratio)
+    {
+        this.parent_ratio = parent_ratio;
+        return this;
+    }
+
+    public SolverConfig persist_ratio(double persist_ratio)
+    {
+        this.persist_ratio = persist_ratio;
+        return this;
+    }
+
+    public SolverConfig n_candidates(int n_candidates)
+    {
+        this.n_candidates = n_candidates;
+        return this;
+    }
+
+    public SolverConfig mutation(GeneticSolver.Mutation mutation)
+    {
+        this.mutation = mutation;
+        return this;
+    }
+
+    public SolverConfig local_search(double ratio, long budget_ms)
+    {
+        this.local_search_ratio = ratio;
+        this.local_search_budget_ms = budget_ms;
+        return this;
+    }
+
+    public SolverConfig local_search_kind(TourImprover.Kind kind)
+    {
+        this.local_search_kind = kind;
+        return this;
+    }
+
+    /*How parents are picked. For TOURNAMENT the sample size is how many tours meet in each tournament*/
+    public SolverConfig selection(Selection.Kind selection)
+    {
+        this.selection = selection;
+        return this;
+    }
+
+    /*For RANK, how many times as likely the best tour is to become a parent as the average one*/
+    public SolverConfig rank_pressure(double rank_pressure)
+    {
+        this.rank_pressure = rank_pressure;
+        return this;
+    }
+
+    /*How the starting tours are built, see Seeding*/
+    public SolverConfig seeding(Seeding.Kind seeding)
+    {
+        this.seeding = seeding;
+        return this;
+    }
+
+    /*What fraction of the starting tours the seeding builds. The rest are random permutations*/
+    public SolverConfig seeding_ratio(double seeding_ratio)
+    {
+        this.seeding_ratio = seeding_ratio;
+        return this;
+    }
+
+    /*How children are bred, see Crossover*/
+    public SolverConfig crossover(Crossover.Kind crossover)
+    {
+        this.crossover = crossover;
+        return this;
+    }
+
+    /*Whether a tour that is already in the next generation gets mutated until it's new, see TourHash*/
+    public SolverConfig dedup(boolean dedup)
+    {
+        this.dedup = dedup;
+        return this;
+    }
+
+    /*When the population's edge entropy falls below entropy, replace its least fit ratio with new tours from the seeding.
+    An entropy of 0 never does, see EdgeFrequency*/
+    public SolverConfig immigration(double entropy, double ratio)
+    {
+        this.immigration_entropy = entropy;
+        this.immigration_ratio = ratio;
+        return this;
+    }
+
+    /*How many threads each generation is bred on. 1 steps on the calling thread. The flag is -step-threads, since the batch
+    runner's and the tuner's -threads are how many runs go at once*/
+    public SolverConfig threads(int threads)
+    {
+        this.threads = threads;
+        return this;
+    }
+
+    /*Throws IllegalArgumentException for parameters the solver can't run with*/
+    public SolverConfig validate()
+    {
+        check(this.popsize >= 2, "popsize has to be at least 2");
+        check(this.max_generation >= 0, "max generation can't be negative");
+        check(this.sample_size >= 1, "sample size has to be at least 1");
+        check(this.mutation_rate >= 0 && this.mutation_rate <= 1, "mutation rate has to be between 0 and 1");
+        check(this.parent_ratio > 0 && this.parent_ratio <= 1, "parent ratio has to be in (0, 1]");
+        check(this.persist_ratio >= 0 && this.persist_ratio < 1, "persist ratio has to be in [0, 1)");
+        check(Math.round(this.popsize * this.parent_ratio) >= 1, "there has to be at least one parent");
+        check(Math.round(this.popsize * this.persist_ratio) < this.popsize, "there has to be room for at least one child");
+        check(this.n_candidates >= 1, "there has to be at least one candidate");
+        check(this.local_search_ratio >= 0 && this.local_search_ratio <= 1, "local search ratio has to be between 0 and 1");
+        check(this.rank_pressure >= 1 && this.rank_pressure <= 2, "rank pressure has to be between 1 and 2");
+        check(this.seeding_ratio >= 0 && this.seeding_ratio <= 1, "seeding ratio has to be between 0 and 1");
+        check(this.immigration_entropy >= 0 && this.immigration_entropy < 1, "immigration entropy has to be in [0, 1)");
+        check(this.threads >= 1, "there has to be at least one thread");
+        check(this.immigration_ratio > 0 && this.immigration_ratio < 1, "immigration ratio has to be in (0, 1)");
+        return this;
+    }
+
+    private static void check(boolean ok, String message)
+    {
+        if (!ok)
+        {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    /*If args[i] is one of our flags, reads it and its values and returns how many arguments that was. Otherwise returns 0*/
+    public int parse(String[] args, int i)
+    {
+        switch (args[i])
+        {
+            case "-popsize":
+                this.popsize = Integer.parseInt(args[i+1]);
+                return 2;
+            case "-mutation-rate":
+                this.mutation_rate = Double.parseDouble(args[i+1]);
+                return 2;
+            case "-max-generation":
+                this.max_generation = Integer.parseInt(args[i+1]);
+                return 2;
+            case "-sample-size":
+                this.sample_size = Integer.parseInt(args[i+1]);
+                return 2;
+            case "-parent-ratio":
+                this.parent_ratio = Double.parseDouble(args[i+1]);
+                return 2;
+            case "-persist-ratio":
+                this.persist_ratio = Double.parseDouble(args[i+1]);
+                return 2;
+            case "-candidates":
+                this.n_candidates = Integer.parseInt(args[i+1]);
+                return 2;
+            case "-mutation":
+                this.mutation = GeneticSolver.Mutation.valueOf(args[i+1]);
+                return 2;
+            case "-local-search":
+                this.local_search_ratio = Double.parseDouble(args[i+1]);
+                this.local_search_budget_ms = Long.parseLong(args[i+2]);
+                return 3;
+            case "-local-search-kind":
+                this.local_search_kind = TourImprover.Kind.valueOf(args[i+1]);
+                return 2;
+            case "-selection":
+                this.selection = Selection.Kind.valueOf(args[i+1]);
+                return 2;
+            case "-rank-pressure":
+                this.rank_pressure = Double.parseDouble(args[i+1]);
+                return 2;
+            case "-seeding":
+                this.seeding = Seeding.Kind.valueOf(args[i+1]);
+                return 2;
+            case "-seeding-ratio":
+                this.seeding_ratio = Double.parseDouble(args[i+1]);
+                return 2;
+            case "-crossover":
+                this.crossover = Crossover.Kind.valueOf(args[i+1]);
+                return 2;
+            case "-step-threads":
+                this.threads = Integer.parseInt(args[i+1]);
+                return 2;
+            case "-dedup":
+                this.dedup = true;
+                return 1;
+            case "-immigration":
+                this.immigration_entropy = Double.parseDouble(args[i+1]);
+                this.immigration_ratio = Double.parseDouble(args[i+2]);
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    public SolverConfig copy()
+    {
+        try
+        {
+            return (SolverConfig) this.clone();
+        }
+        catch (CloneNotSupportedException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /*The flags that parse() turns back into this config*/
+    public String toString()
+    {
+        String s = String.format(Locale.ROOT, "-popsize %d -mutation-rate %s -max-generation %d -sample-size %d -parent-ratio %s -persist-ratio %s -candidates %d -mutation %s",
+            this.popsize, this.mutation_rate, this.max_generation, this.sample_size, this.parent_ratio, this.persist_ratio, this.n_candidates, this.mutation);
+        if (this.selection != Selection.Kind.TOURNAMENT)
+        {
+            s += " -selection " + this.selection;
+        }
+        if (this.selection == Selection.Kind.RANK)
+        {
+            s += String.format(Locale.ROOT, " -rank-pressure %s", this.rank_pressure);
+        }
+        if (this.crossover != Crossover.Kind.NNX)
+        {
+            s += " -crossover " + this.crossover;
+        }
+        if (this.seeding != Seeding.Kind.RANDOM)
+        {
+            s += String.format(Locale.ROOT, " -seeding %s -seeding-ratio %s", this.seeding, this.seeding_ratio);
+        }
+        if (this.dedup)
+        {
+            s += " -dedup";
+        }
+        if (this.threads > 1)
+        {
+            s += " -step-threads " + this.threads;
+        }
+        if (this.immigration_entropy > 0)
+        {
+            s += String.format(Locale.ROOT, " -immigration %s %s", this.immigration_entropy, this.immigration_ratio);
+        }
+        if (this.local_search_ratio > 0)
+        {
+            s += String.format(Locale.ROOT, " -local-search %s %d -local-search-kind %s", this.local_search_ratio, this.local_search_budget_ms, this.local_search_kind);
+        }
+        return s;
+    }
+}
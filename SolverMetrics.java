@@ -0,0 +1,362 @@
+/*
+SolverMetrics.java
+Counters and timers for the insides of GeneticSolver.step: how long each phase takes, how often the NNA has to fall back from the
+union graph to the candidate lists or to a scan of every city, how many bytes get allocated, and how the population is doing.
+Turned on with -Dtsp.metrics=true. ENABLED is a static final, so when it's off the JIT drops every instrumented branch and the
+solver runs as if none of this were here.
+
+When on, the metrics are registered as the MBean tsp:type=SolverMetrics, every generation is recorded as a tsp.Generation JFR event
+(free unless a recording is running), and with -Dtsp.metrics.port=9400 they are also served as Prometheus text at http://localhost:9400/metrics
+*/
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+public class SolverMetrics implements SolverMetricsMBean
+{
+    public static final boolean ENABLED = Boolean.getBoolean("tsp.metrics");
+
+    // the phases we time
+    static final int SELECTION = 0;
+    static final int BREEDING = 1;
+    static final int UNION = 2;
+    static final int NNA = 3;
+    static final int MUTATION = 4;
+    static final int LOCAL_SEARCH = 5;
+    static final int EVALUATION = 6;
+    static final String[] PHASES = {"selection", "breeding", "union", "nna", "mutation", "local_search", "evaluation"};
+
+    static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // every solver in the JVM reports here
+    public static final SolverMetrics GLOBAL = new SolverMetrics();
+
+    final LongAdder[] phase_nanos = new LongAdder[PHASES.length];
+    final LongAdder generations = new LongAdder();
+    final LongAdder children = new LongAdder();
+    final LongAdder nna_calls = new LongAdder();
+    final LongAdder nna_candidate_fallbacks = new LongAdder();
+    final LongAdder nna_scan_fallbacks = new LongAdder();
+    final LongAdder evaluations = new LongAdder();
+    final LongAdder allocated_bytes = new LongAdder();
+    final LongAdder duplicates = new LongAdder();
+    final LongAdder immigrations = new LongAdder();
+    final long started = System.nanoTime();
+
+    // how the last generation to finish did, in whichever solver that was
+    volatile int last_generation;
+    volatile int best_length;
+    volatile int average_length;
+    volatile double diversity;
+
+    static
+    {
+        if (ENABLED)
+        {
+            GLOBAL.publish();
+        }
+    }
+
+    SolverMetrics()
+    {
+        for (int i = 0; i < PHASES.length; i++)
+        {
+            this.phase_nanos[i] = new LongAdder();
+        }
+    }
+
+    /*One JFR event per generation, lasting as long as the step did*/
+    @Name("tsp.Generation")
+    @Label("Generation")
+    @Category("TSP")
+    static class GenerationEvent extends Event
+    {
+        @Label("Generation")
+        int generation;
+        @Label("Best Length")
+        int best_length;
+        @Label("Average Length")
+        int average_length;
+        @Label("Diversity")
+        double diversity;
+        @Label("Children")
+        int children;
+        @Label("Allocated Bytes")
+        long allocated_bytes;
+    }
+
+    /*Adds the time since since to phase, and returns now, so consecutive phases can be timed with one clock read each*/
+    long lap(int phase, long since)
+    {
+        long now = System.nanoTime();
+        this.phase_nanos[phase].add(now - since);
+        return now;
+    }
+
+    /*What this thread has allocated so far*/
+    static long allocated()
+    {
+        return threads.getCurrentThreadAllocatedBytes();
+    }
+
+    void count_nna(int candidate_fallbacks, int scan_fallbacks)
+    {
+        this.nna_calls.increment();
+        if (candidate_fallbacks > 0)
+        {
+            this.nna_candidate_fallbacks.add(candidate_fallbacks);
+        }
+        if (scan_fallbacks > 0)
+        {
+            this.nna_scan_fallbacks.add(scan_fallbacks);
+        }
+    }
+
+    /*Records a finished generation of solver, and sends its JFR event*/
+    void end_generation(GeneticSolver solver, GenerationEvent event, int n_children, long bytes)
+    {
+        this.generations.increment();
+        this.children.add(n_children);
+        this.allocated_bytes.add(bytes);
+        this.last_generation = solver.get_generation();
+        this.best_length = solver.best_length();
+        this.average_length = solver.avg_fitness();
+        this.diversity = solver.diversity();
+
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.generation = this.last_generation;
+            event.best_length = this.best_length;
+            event.average_length = this.average_length;
+            event.diversity = this.diversity;
+            event.children = n_children;
+            event.allocated_bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /*Register the MBean, and start the HTTP endpoint if a port was given*/
+    void publish()
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("tsp:type=SolverMetrics"));
+        }
+        catch (Exception e)
+        {
+            System.err.println("could not register the solver metrics MBean: " + e);
+        }
+
+        int port = Integer.getInteger("tsp.metrics.port", 0);
+        if (port > 0)
+        {
+            try
+            {
+                // only on the loopback interface, these are for whoever runs the solver
+                ServerSocket server = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+                // a daemon, so it doesn't keep the JVM alive once the solver is done. The JDK's HttpServer can't be made one
+                Thread t = new Thread(() -> this.serve(server), "metrics http");
+                t.setDaemon(true);
+                t.start();
+            }
+            catch (IOException e)
+            {
+                System.err.println("could not serve solver metrics on port " + port + ": " + e);
+            }
+        }
+    }
+
+    /*Answers every request, whatever its path, with the metrics. Scrapes are rare and tiny, so one at a time is plenty*/
+    private void serve(ServerSocket server)
+    {
+        while (true)
+        {
+            try (Socket socket = server.accept())
+            {
+                socket.setSoTimeout(5000);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+                // skip the request and its headers, up to the blank line
+                String line;
+                while ((line = in.readLine()) != null && !line.isEmpty())
+                {
+                }
+                byte[] body = this.prometheus().getBytes(StandardCharsets.UTF_8);
+                String head = "HTTP/1.1 200 OK\r\nContent-Type: text/plain; version=0.0.4; charset=utf-8\r\nContent-Length: " + body.length + "\r\nConnection: close\r\n\r\n";
+                OutputStream out = socket.getOutputStream();
+                out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+                out.write(body);
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                // a client that went away, just wait for the next one
+            }
+        }
+    }
+
+    /*Everything in the Prometheus text format*/
+    public String prometheus()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP tsp_phase_seconds_total Time spent in each phase of a generation.\n");
+        sb.append("# TYPE tsp_phase_seconds_total counter\n");
+        for (int i = 0; i < PHASES.length; i++)
+        {
+            sb.append(String.format(Locale.ROOT, "tsp_phase_seconds_total{phase=\"%s\"} %.6f\n", PHASES[i], this.phase_nanos[i].sum() / 1e9));
+        }
+        counter(sb, "tsp_generations_total", "Generations finished.", this.generations.sum());
+        counter(sb, "tsp_children_total", "Children bred.", this.children.sum());
+        counter(sb, "tsp_nna_calls_total", "Nearest neighbor crossovers.", this.nna_calls.sum());
+        counter(sb, "tsp_nna_candidate_fallbacks_total", "Times the NNA had no unvisited union graph neighbor and used the candidate lists.", this.nna_candidate_fallbacks.sum());
+        counter(sb, "tsp_nna_scan_fallbacks_total", "Times the NNA had to scan every unvisited city.", this.nna_scan_fallbacks.sum());
+        counter(sb, "tsp_evaluations_total", "Full evaluations of a tour's length.", this.evaluations.sum());
+        counter(sb, "tsp_allocated_bytes_total", "Bytes allocated while stepping.", this.allocated_bytes.sum());
+        counter(sb, "tsp_duplicates_total", "Duplicate tours that were mutated away.", this.duplicates.sum());
+        counter(sb, "tsp_immigrations_total", "Times the edge entropy fell low enough to bring in new tours.", this.immigrations.sum());
+        gauge(sb, "tsp_generations_per_second", "Generations finished per second since the start.", this.getGenerationsPerSecond());
+        gauge(sb, "tsp_generation", "The last generation to finish.", this.last_generation);
+        gauge(sb, "tsp_best_length", "The best tour of the last generation to finish.", this.best_length);
+        gauge(sb, "tsp_average_length", "The average tour of the last generation to finish.", this.average_length);
+        gauge(sb, "tsp_diversity", "The fraction of edges a tour doesn't share with the best tour, on average.", this.diversity);
+        return sb.toString();
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value)
+    {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" counter\n");
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value)
+    {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" gauge\n");
+        sb.append(name).append(' ').append(String.format(Locale.ROOT, "%.6f", value)).append('\n');
+    }
+
+    private double seconds(int phase)
+    {
+        return this.phase_nanos[phase].sum() / 1e9;
+    }
+
+    public long getGenerations()
+    {
+        return this.generations.sum();
+    }
+
+    public long getChildren()
+    {
+        return this.children.sum();
+    }
+
+    public double getGenerationsPerSecond()
+    {
+        return this.generations.sum() / ((System.nanoTime() - this.started) / 1e9);
+    }
+
+    public double getSelectionSeconds()
+    {
+        return this.seconds(SELECTION);
+    }
+
+    public double getBreedingSeconds()
+    {
+        return this.seconds(BREEDING);
+    }
+
+    public double getUnionSeconds()
+    {
+        return this.seconds(UNION);
+    }
+
+    public double getNNASeconds()
+    {
+        return this.seconds(NNA);
+    }
+
+    public double getMutationSeconds()
+    {
+        return this.seconds(MUTATION);
+    }
+
+    public double getLocalSearchSeconds()
+    {
+        return this.seconds(LOCAL_SEARCH);
+    }
+
+    public double getEvaluationSeconds()
+    {
+        return this.seconds(EVALUATION);
+    }
+
+    public long getNNACalls()
+    {
+        return this.nna_calls.sum();
+    }
+
+    public long getNNACandidateFallbacks()
+    {
+        return this.nna_candidate_fallbacks.sum();
+    }
+
+    public long getNNAScanFallbacks()
+    {
+        return this.nna_scan_fallbacks.sum();
+    }
+
+    public long getEvaluations()
+    {
+        return this.evaluations.sum();
+    }
+
+    public long getAllocatedBytes()
+    {
+        return this.allocated_bytes.sum();
+    }
+
+    public long getDuplicates()
+    {
+        return this.duplicates.sum();
+    }
+
+    public long getImmigrations()
+    {
+        return this.immigrations.sum();
+    }
+
+    public int getLastGeneration()
+    {
+        return this.last_generation;
+    }
+
+    public int getBestLength()
+    {
+        return this.best_length;
+    }
+
+    public int getAverageLength()
+    {
+        return this.average_length;
+    }
+
+    public double getDiversity()
+    {
+        return this.diversity;
+    }
+}
@@ -0,0 +1,33 @@
+/*
+SolverMetricsMBean.java
+What SolverMetrics shows over JMX, e.g. in JConsole under tsp:type=SolverMetrics.
+Times are summed over every solver in the JVM, and for the phases inside breeding, over every thread that breeds.
+*/
+
+public interface SolverMetricsMBean
+{
+    public long getGenerations();
+    public long getChildren();
+    public double getGenerationsPerSecond();
+
+    public double getSelectionSeconds();
+    public double getBreedingSeconds();
+    public double getUnionSeconds();
+    public double getNNASeconds();
+    public double getMutationSeconds();
+    public double getLocalSearchSeconds();
+    public double getEvaluationSeconds();
+
+    public long getNNACalls();
+    public long getNNACandidateFallbacks();
+    public long getNNAScanFallbacks();
+    public long getEvaluations();
+    public long getAllocatedBytes();
+    public long getDuplicates();
+    public long getImmigrations();
+
+    public int getLastGeneration();
+    public int getBestLength();
+    public int getAverageLength();
+    public double getDiversity();
+}
@@ -12,13 +12,40 @@ import java.util.ArrayList;
 
 public class TSP
 {
-    
-    public static void main(String[] args)
+    // up to this many cities we cache all the distances in a half matrix, past it we compute them on the fly
+    static final int CACHE_LIMIT = 5000;
+
+    public static void main(String[] args) throws Exception
     {
+        // headless batch mode, for servers
+        if (args.length > 0 && args[0].equals("--batch"))
+        {
+            BatchRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
 
-        if (args.length != 2)
+        // the solver's flags come after the files
+        SolverConfig config = new SolverConfig();
+        boolean ok = args.length >= 2;
+        try
+        {
+            for (int i = 2; ok && i < args.length; )
+            {
+                int used = config.parse(args, i);
+                ok = used > 0;
+                i += used;
+            }
+            config.validate();
+        }
+        catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e)
+        {
+            ok = false;
+        }
+        if (!ok)
         {
-            System.out.println("usage: java TSP <problemfile (.tsp file)> <solutionfile (.opt.tour file), or NONE>");
+            System.out.println("usage: java TSP <problemfile (.tsp file)> <solutionfile (.opt.tour file), or NONE> [solver flags]");
+            System.out.println("       solver flags: " + SolverConfig.USAGE.replace("\n", "\n                     "));
+            System.out.println("   or: java TSP --batch <options and problem/solution pairs, see BatchRunner>");
             System.exit(1);
         }
 
@@ -27,17 +54,13 @@ public class TSP
         String solution_file_path = args[1];
 
         // load the list of cities
-        int[][] cities = load_cities(problem_file_path);
-        int[][] adjacency = compute_distances(cities);
+        InstanceCache.Entry instance = load_instance(problem_file_path, InstanceCache.DEFAULT_DIR, config.n_candidates);
+        int[][] cities = cities_of(instance.problem);
 
         // set up our solver
-        GeneticSolver solver = new GeneticSolver(adjacency);
+        GeneticSolver solver = new GeneticSolver(instance.dist, instance.nearest, config);
 
-        // get the name of the problem, which is between the last / and the first '.' Heinous, I know
-        //e.g. data/berlin52.tsp is problem berlin52
-        String[] tokens = problem_file_path.split("\\.");
-        tokens = tokens[0].split("/");
-        String instance_name = tokens[tokens.length-1];
+        String instance_name = instance_name(problem_file_path);
 
         // make our Plotter for visualizing what's going on
         Plotter plotter = new Plotter("TSPLIB Instance " + instance_name);
@@ -61,18 +84,16 @@ public class TSP
         }
        
         
-        GeneticSolver.Path best = null;
         int average_fitness;
         int generation;
+        // the solver publishes its fittest tour every generation, and the plotter draws it whenever it gets to it
+        solver.publish_to(plotter.channel());
         solver.initialize();
         while (solver.should_continue())
         {
             average_fitness = solver.avg_fitness();
             generation = solver.get_generation();
 
-            best = solver.fittest_individual();
-            plotter.show_path(best, generation);
-
             // wait for the user before evolving to next generation
             System.out.print("Generation " + generation + "/" + solver.MAX_GENERATION + " had average length " + average_fitness);
             System.out.print(". Enter anything to continue, or 'q' to exit: ");
@@ -85,20 +106,27 @@ public class TSP
             solver.step();
         }
 
-        System.out.println("The best solution found was: " + best);
+        System.out.println("The best solution found was: " + solver.best_so_far());
         System.out.println("Enter anything to exit");
         in.nextLine();
         System.exit(0);
     }
 
-    /*Make an array that holds [x, y] coords for the cities*/
-    public static int[][] load_cities(String problem_file_path)
+    /*get the name of the problem, which is between the last / and the first '.' after it
+    e.g. data/berlin52.tsp is problem berlin52*/
+    public static String instance_name(String problem_file_path)
+    {
+        String file_name = new File(problem_file_path).getName();
+        int dot = file_name.indexOf('.');
+        return dot < 0 ? file_name : file_name.substring(0, dot);
+    }
+
+    /*Read a TSPLIB file, or exit if we can't*/
+    public static TSPLIBFile load_file(String file_path)
     {
-        // create our Scanner Object
-        Scanner s;
         try
         {
-            s = new Scanner(new File(problem_file_path));    
+            return TSPLIBFile.load(file_path);
         }
         catch (Exception e)
         {
@@ -106,59 +134,65 @@ public class TSP
             System.exit(1);
             return null;
         }
+    }
+
+    /*Make an array that holds [x, y] coords for the cities*/
+    public static int[][] load_cities(String problem_file_path)
+    {
+        return cities_of(load_file(problem_file_path));
+    }
 
-        // read the metadata
-        int n = 0;
-        while (true)
+    /*The coordinates of the cities rounded for plotting. Instances without coordinates get their cities spread around a circle*/
+    public static int[][] cities_of(TSPLIBFile problem)
+    {
+        int n = problem.dimension;
+        int[][] cities = new int[n][2];
+        for (int i = 0; i < n; i++)
         {
-            String line = s.nextLine().trim();
-            if (line.startsWith("DIMENSION"))
-            {
-                n = Integer.parseInt(line.split(":")[1].trim());
-            }
-            if (line.startsWith("EDGE_WEIGHT_TYPE"))
+            if (problem.xs != null)
             {
-                if (!line.split(":")[1].trim().equals("EUC_2D"))
-                {
-                    System.out.println("input file must be of type 'EUC_2D'");
-                    System.exit(1);
-                }
+                cities[i][0] = (int) Math.round(problem.xs[i]);
+                cities[i][1] = (int) Math.round(problem.ys[i]);
             }
-            if (line.startsWith("NODE_COORD_SECTION"))
+            else
             {
-                break;
+                double angle = 2 * Math.PI * i / n;
+                cities[i][0] = (int) Math.round(1000 * Math.cos(angle));
+                cities[i][1] = (int) Math.round(1000 * Math.sin(angle));
             }
         }
+        return cities;
+    }
 
-        // read the actual data
-        int[][] cities = new int[n][2];
-        while (s.hasNextLine())
+    /*Create the list of cities which is the optimal tour for this problem*/
+    public static ArrayList<Integer> load_optimal_tour(String filepath)
+    {
+        TSPLIBFile file = load_file(filepath);
+        if (file.tour == null)
         {
-            String line = s.nextLine().trim();
-            if (line.startsWith("EOF") || line.equals(""))
-            {
-                break;
-            }
-
-            String[] tokens = line.split(" ");
-            int i = Integer.parseInt(tokens[0])-1;
-            int x = (int) Math.round(Double.parseDouble(tokens[1]));
-            int y = (int) Math.round(Double.parseDouble(tokens[2]));
-
-            cities[i] = new int[] {x, y};
+            System.out.println(filepath + " has no TOUR_SECTION");
+            System.exit(1);
+        }
+        ArrayList<Integer> cities = new ArrayList<Integer>(file.tour.length);
+        for (int city: file.tour)
+        {
+            cities.add(city);
         }
-
         return cities;
     }
 
-    /*Create the list of cities which is the optimal tour for this problem*/
-    public static ArrayList<Integer> load_optimal_tour(String filepath)
+    /*Read a problem and its candidate lists through the cache in cache_dir (null for no cache), or exit if we can't*/
+    public static InstanceCache.Entry load_instance(String problem_file_path, String cache_dir)
+    {
+        return load_instance(problem_file_path, cache_dir, GeneticSolver.DEFAULT_N_CANDIDATES);
+    }
+
+    /*The same, with k candidates per city*/
+    public static InstanceCache.Entry load_instance(String problem_file_path, String cache_dir, int k)
     {
-        // create our Scanner Object
-        Scanner s;
         try
         {
-            s = new Scanner(new File(filepath));    
+            return new InstanceCache(cache_dir).load(problem_file_path, k);
         }
         catch (Exception e)
         {
@@ -166,37 +200,65 @@ public class TSP
             System.exit(1);
             return null;
         }
+    }
 
-        while (!s.nextLine().trim().equals("TOUR_SECTION"))
-        {
-            continue;
-        }
+    /*Read a problem file and make the distance oracle for it*/
+    public static DistanceOracle load_distances(String problem_file_path)
+    {
+        return make_distances(load_file(problem_file_path));
+    }
 
-        // read the actual data
-        ArrayList<Integer> cities = new ArrayList<Integer>();
-        while (s.hasNextLine())
+    /* makes a distance oracle of the right edge weight type for a problem. Small instances get a cached half matrix, large ones compute distances on demand*/
+    public static DistanceOracle make_distances(TSPLIBFile problem)
+    {
+        String type = problem.edge_weight_type == null ? "EUC_2D" : problem.edge_weight_type;
+        if (type.equals("EXPLICIT"))
         {
-            String line = s.nextLine().trim();
-            if (line.startsWith("EOF") || line.equals("") || line.equals("-1"))
+            if (problem.weights == null)
             {
-                break;
+                throw new IllegalArgumentException("EXPLICIT instance without an EDGE_WEIGHT_SECTION");
             }
-            String[] tokens = line.split(" ");
-            for (String token: tokens)
-            {
-                String trimmed = token.trim();
-                if (trimmed.equals(""))
-                {
-                    continue;
-                }
-                int city = Integer.parseInt(trimmed)-1;
-                cities.add(city); 
-            }
-            
+            return new MatrixDistances(problem.weights);
+        }
+        if (problem.xs == null)
+        {
+            throw new IllegalArgumentException(type + " instance without a NODE_COORD_SECTION");
         }
 
-        return cities;
+        DistanceOracle computed;
+        switch (type)
+        {
+            case "EUC_2D":
+                computed = new EuclideanDistances(problem.xs, problem.ys);
+                break;
+            case "CEIL_2D":
+                computed = new CeilDistances(problem.xs, problem.ys);
+                break;
+            case "ATT":
+                computed = new AttDistances(problem.xs, problem.ys);
+                break;
+            case "GEO":
+                computed = new GeoDistances(problem.xs, problem.ys);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported EDGE_WEIGHT_TYPE '" + type + "'");
+        }
+        if (problem.dimension <= CACHE_LIMIT)
+        {
+            return new HalfMatrixDistances(computed);
+        }
+        return computed;
+    }
 
+    /* makes a distance oracle for a list of cities. Small instances get a cached half matrix, large ones compute distances on demand*/
+    public static DistanceOracle make_distances(int[][] cities)
+    {
+        DistanceOracle euclidean = new EuclideanDistances(cities);
+        if (cities.length <= CACHE_LIMIT)
+        {
+            return new HalfMatrixDistances(euclidean);
+        }
+        return euclidean;
     }
 
     /* makes an adjacency matrix for a list of cities with certain coordinates*/
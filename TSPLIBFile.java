@@ -0,0 +1,379 @@
+/*
+TSPLIBFile.java
+Reads TSPLIB problem (.tsp) and tour (.tour) files. The file is memory mapped and the numbers are parsed straight out of
+the bytes, so the big sections (coordinates, explicit weights, tours) don't make a String per line or per token.
+Coordinates are kept as doubles, like TSPLIB defines them, and the distances are only rounded at the end.
+Supports the EUC_2D, CEIL_2D, ATT and GEO edge weight types, and EXPLICIT weights in the
+FULL_MATRIX, UPPER_ROW, LOWER_ROW, UPPER_DIAG_ROW and LOWER_DIAG_ROW formats.
+*/
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class TSPLIBFile
+{
+    // the header
+    public String name;
+    public String type;
+    public int dimension;
+    public String edge_weight_type;
+    public String edge_weight_format;
+
+    // NODE_COORD_SECTION, or DISPLAY_DATA_SECTION for EXPLICIT instances that have one. null if the file has neither
+    public double[] xs;
+    public double[] ys;
+    // EDGE_WEIGHT_SECTION, always expanded to the full symmetric matrix
+    public int[][] weights;
+    // TOUR_SECTION, 0 based
+    public int[] tour;
+
+    // where we are in the file
+    private final MappedByteBuffer buf;
+    private final int limit;
+    private int pos;
+
+    /*An empty problem, to be filled in from somewhere other than a TSPLIB file, like the InstanceCache*/
+    TSPLIBFile()
+    {
+        this.buf = null;
+        this.limit = 0;
+    }
+
+    private TSPLIBFile(MappedByteBuffer buf)
+    {
+        this.buf = buf;
+        this.limit = buf.limit();
+    }
+
+    /*Read a .tsp or .tour file*/
+    public static TSPLIBFile load(String file_path) throws IOException
+    {
+        Path path = Paths.get(file_path);
+        MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("file too big to map: " + file_path);
+            }
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        TSPLIBFile file = new TSPLIBFile(buf);
+        try
+        {
+            file.parse();
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IOException(file_path + ": " + e.getMessage(), e);
+        }
+        return file;
+    }
+
+    /*Go through the keywords and sections in whatever order they come*/
+    private void parse()
+    {
+        while (true)
+        {
+            String line = this.next_line();
+            if (line == null || line.equals("EOF"))
+            {
+                break;
+            }
+            if (line.isEmpty())
+            {
+                continue;
+            }
+
+            int colon = line.indexOf(':');
+            String key = (colon < 0 ? line : line.substring(0, colon)).trim();
+            String value = colon < 0 ? "" : line.substring(colon + 1).trim();
+            switch (key)
+            {
+                case "NAME":
+                    this.name = value;
+                    break;
+                case "TYPE":
+                    this.type = value;
+                    break;
+                case "DIMENSION":
+                    this.dimension = Integer.parseInt(value);
+                    break;
+                case "EDGE_WEIGHT_TYPE":
+                    this.edge_weight_type = value;
+                    break;
+                case "EDGE_WEIGHT_FORMAT":
+                    this.edge_weight_format = value;
+                    break;
+                case "NODE_COORD_SECTION":
+                case "DISPLAY_DATA_SECTION":
+                    this.read_coordinates();
+                    break;
+                case "EDGE_WEIGHT_SECTION":
+                    this.read_weights();
+                    break;
+                case "TOUR_SECTION":
+                    this.read_tour();
+                    break;
+                default:
+                    // COMMENT, NODE_COORD_TYPE, DISPLAY_DATA_TYPE and friends tell us nothing we need
+                    break;
+            }
+        }
+    }
+
+    /*dimension lines of "id x y"*/
+    private void read_coordinates()
+    {
+        this.require_dimension();
+        int n = this.dimension;
+        this.xs = new double[n];
+        this.ys = new double[n];
+        for (int k = 0; k < n; k++)
+        {
+            int i = (int) this.next_long() - 1;
+            if (i < 0 || i >= n)
+            {
+                throw new IllegalArgumentException("node " + (i+1) + " out of range 1.." + n);
+            }
+            this.xs[i] = this.next_double();
+            this.ys[i] = this.next_double();
+        }
+    }
+
+    /*The explicit weights in the order given by EDGE_WEIGHT_FORMAT*/
+    private void read_weights()
+    {
+        this.require_dimension();
+        int n = this.dimension;
+        String format = this.edge_weight_format == null ? "" : this.edge_weight_format;
+        int[][] w = new int[n][n];
+        switch (format)
+        {
+            case "FULL_MATRIX":
+                for (int i = 0; i < n; i++)
+                {
+                    for (int j = 0; j < n; j++)
+                    {
+                        w[i][j] = (int) this.next_long();
+                    }
+                }
+                break;
+            case "UPPER_ROW":
+            case "UPPER_DIAG_ROW":
+            {
+                int skip = format.equals("UPPER_ROW") ? 1 : 0;
+                for (int i = 0; i < n; i++)
+                {
+                    for (int j = i + skip; j < n; j++)
+                    {
+                        w[i][j] = w[j][i] = (int) this.next_long();
+                    }
+                }
+                break;
+            }
+            case "LOWER_ROW":
+            case "LOWER_DIAG_ROW":
+            {
+                int skip = format.equals("LOWER_ROW") ? 1 : 0;
+                for (int i = 0; i < n; i++)
+                {
+                    for (int j = 0; j <= i - skip; j++)
+                    {
+                        w[i][j] = w[j][i] = (int) this.next_long();
+                    }
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unsupported EDGE_WEIGHT_FORMAT '" + format + "'");
+        }
+        this.weights = w;
+    }
+
+    /*City numbers up to the -1 that ends the tour. Only the first tour of the file is kept*/
+    private void read_tour()
+    {
+        int[] cities = new int[Math.max(this.dimension, 16)];
+        int n = 0;
+        while (true)
+        {
+            this.skip_space();
+            if (this.pos >= this.limit || !this.at_number())
+            {
+                break;
+            }
+            long city = this.next_long();
+            if (city < 0)
+            {
+                break;
+            }
+            if (n == cities.length)
+            {
+                cities = Arrays.copyOf(cities, 2*n);
+            }
+            cities[n++] = (int) city - 1;
+        }
+        if (this.tour == null)
+        {
+            this.tour = Arrays.copyOf(cities, n);
+        }
+    }
+
+    private void require_dimension()
+    {
+        if (this.dimension <= 0)
+        {
+            throw new IllegalArgumentException("DIMENSION has to come before the data sections");
+        }
+    }
+
+    /*The rest of the current line, trimmed, or null at the end of the file. Only used for the few header lines*/
+    private String next_line()
+    {
+        if (this.pos >= this.limit)
+        {
+            return null;
+        }
+        int start = this.pos;
+        while (this.pos < this.limit && this.buf.get(this.pos) != '\n')
+        {
+            this.pos++;
+        }
+        byte[] bytes = new byte[this.pos - start];
+        this.buf.get(start, bytes);
+        if (this.pos < this.limit)
+        {
+            this.pos++;
+        }
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+    private void skip_space()
+    {
+        while (this.pos < this.limit)
+        {
+            byte b = this.buf.get(this.pos);
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r')
+            {
+                break;
+            }
+            this.pos++;
+        }
+    }
+
+    private boolean at_number()
+    {
+        byte b = this.buf.get(this.pos);
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.';
+    }
+
+    private long next_long()
+    {
+        this.skip_space();
+        int token = this.pos;
+        boolean negative = false;
+        if (this.pos < this.limit && (this.buf.get(this.pos) == '-' || this.buf.get(this.pos) == '+'))
+        {
+            negative = this.buf.get(this.pos) == '-';
+            this.pos++;
+        }
+        int start = this.pos;
+        long value = 0;
+        while (this.pos < this.limit)
+        {
+            int digit = this.buf.get(this.pos) - '0';
+            if (digit < 0 || digit > 9)
+            {
+                break;
+            }
+            value = 10*value + digit;
+            this.pos++;
+        }
+        if (this.pos == start)
+        {
+            throw new IllegalArgumentException("expected a number at byte " + this.pos);
+        }
+        // some files write integer weights as "12.0"
+        if (this.pos < this.limit && this.buf.get(this.pos) == '.')
+        {
+            this.pos = token;
+            return Math.round(this.next_double());
+        }
+        return negative ? -value : value;
+    }
+
+    /*Parses [sign]digits[.digits][e[sign]digits]. Mantissas of up to 15 digits are converted exactly, longer ones go through Double.parseDouble*/
+    private double next_double()
+    {
+        this.skip_space();
+        int start = this.pos;
+        boolean negative = false;
+        if (this.pos < this.limit && (this.buf.get(this.pos) == '-' || this.buf.get(this.pos) == '+'))
+        {
+            negative = this.buf.get(this.pos) == '-';
+            this.pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        while (this.pos < this.limit)
+        {
+            byte b = this.buf.get(this.pos);
+            if (b >= '0' && b <= '9')
+            {
+                if (mantissa != 0 || b != '0')
+                {
+                    digits++;
+                }
+                mantissa = 10*mantissa + (b - '0');
+                if (point)
+                {
+                    scale--;
+                }
+            }
+            else if (b == '.' && !point)
+            {
+                point = true;
+            }
+            else
+            {
+                break;
+            }
+            this.pos++;
+        }
+        int exponent = 0;
+        if (this.pos < this.limit && (this.buf.get(this.pos) == 'e' || this.buf.get(this.pos) == 'E'))
+        {
+            this.pos++;
+            exponent = (int) this.next_long();
+        }
+        if (this.pos == start)
+        {
+            throw new IllegalArgumentException("expected a number at byte " + this.pos);
+        }
+
+        int power = scale + exponent;
+        if (digits > 15 || power < -22 || power > 22)
+        {
+            byte[] bytes = new byte[this.pos - start];
+            this.buf.get(start, bytes);
+            return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+        }
+        // both the mantissa and the power of ten are exact doubles, so this rounds only once
+        double value = power < 0 ? mantissa / POWERS_OF_TEN[-power] : mantissa * POWERS_OF_TEN[power];
+        return negative ? -value : value;
+    }
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+}
@@ -0,0 +1,143 @@
+/*
+Termination.java
+Decides when a GeneticSolver should stop. Policies compose with or() and and(), e.g.
+Termination.time_limit(60000).or(Termination.stagnation(200)).or(Termination.target_gap(optimum, 0.01)).
+Policies that remember something between generations, like the stagnation ones, belong to one solver each.
+*/
+
+public interface Termination
+{
+    /*Called once a generation, before the solver steps*/
+    public boolean should_stop(GeneticSolver solver);
+
+    /*The System.nanoTime() by which the solver has to be done, even in the middle of a generation. The seeding heuristic,
+    when it builds the starting tours or immigrants, stops at it too, and any tours it hadn't gotten to are random*/
+    public default long deadline()
+    {
+        return Long.MAX_VALUE;
+    }
+
+    /*Stop when either of these would*/
+    public default Termination or(Termination other)
+    {
+        Termination self = this;
+        return new Termination()
+        {
+            public boolean should_stop(GeneticSolver solver)
+            {
+                // no short circuit, so stateful policies see every generation
+                boolean a = self.should_stop(solver);
+                boolean b = other.should_stop(solver);
+                return a || b;
+            }
+
+            public long deadline()
+            {
+                return Math.min(self.deadline(), other.deadline());
+            }
+        };
+    }
+
+    /*Stop only when both of these would*/
+    public default Termination and(Termination other)
+    {
+        Termination self = this;
+        return new Termination()
+        {
+            public boolean should_stop(GeneticSolver solver)
+            {
+                boolean a = self.should_stop(solver);
+                boolean b = other.should_stop(solver);
+                return a && b;
+            }
+
+            public long deadline()
+            {
+                return Math.max(self.deadline(), other.deadline());
+            }
+        };
+    }
+
+    /*Stop after this many generations, like the original MAX_GENERATION*/
+    public static Termination max_generations(int generations)
+    {
+        return solver -> solver.get_generation() > generations;
+    }
+
+    /*Stop at a System.nanoTime() deadline. A generation that is still running then gets cut short*/
+    public static Termination deadline(long deadline)
+    {
+        return new Termination()
+        {
+            public boolean should_stop(GeneticSolver solver)
+            {
+                return System.nanoTime() >= deadline;
+            }
+
+            public long deadline()
+            {
+                return deadline;
+            }
+        };
+    }
+
+    /*Stop this many milliseconds from now*/
+    public static Termination time_limit(long ms)
+    {
+        return deadline(System.nanoTime() + ms * 1000000L);
+    }
+
+    /*Stop once the best tour hasn't gotten shorter for this many generations*/
+    public static Termination stagnation(int generations)
+    {
+        return new Stagnation(generations, Long.MAX_VALUE);
+    }
+
+    /*Stop once the best tour hasn't gotten shorter for this many milliseconds*/
+    public static Termination stagnation_time(long ms)
+    {
+        return new Stagnation(Integer.MAX_VALUE, ms * 1000000L);
+    }
+
+    /*Stop once the best tour is within gap (e.g. 0.01 for 1%) of the known optimum*/
+    public static Termination target_gap(int optimum, double gap)
+    {
+        return solver -> solver.best_length() <= optimum * (1 + gap);
+    }
+
+    /*Stop once the population has converged so far that a tour differs from the best one in fewer than this fraction of its edges, on average*/
+    public static Termination diversity_floor(double floor)
+    {
+        return solver -> solver.diversity() < floor;
+    }
+
+    /*Remembers when the best tour last got shorter*/
+    static class Stagnation implements Termination
+    {
+        final int max_generations;
+        final long max_nanos;
+        int best = Integer.MAX_VALUE;
+        int improved_generation;
+        long improved_time;
+
+        Stagnation(int max_generations, long max_nanos)
+        {
+            this.max_generations = max_generations;
+            this.max_nanos = max_nanos;
+        }
+
+        public boolean should_stop(GeneticSolver solver)
+        {
+            int length = solver.best_length();
+            if (length < this.best)
+            {
+                this.best = length;
+                this.improved_generation = solver.get_generation();
+                this.improved_time = System.nanoTime();
+                return false;
+            }
+            return solver.get_generation() - this.improved_generation >= this.max_generations
+                || System.nanoTime() - this.improved_time >= this.max_nanos;
+        }
+    }
+}
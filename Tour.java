@@ -0,0 +1,33 @@
+/*
+Tour.java
+A tour that local search can walk and rearrange. Which way is "forward" is up to the implementation,
+and may change after a reversal, since reversing a path or the rest of the tour gives the same cycle
+*/
+
+public interface Tour
+{
+    // from this many cities on, the two-level list's O(sqrt(n)) reversals beat the array's O(n) ones
+    static final int TWO_LEVEL_THRESHOLD = 1000;
+
+    /*The fastest kind of tour for this many cities*/
+    public static Tour for_size(int n)
+    {
+        return n >= TWO_LEVEL_THRESHOLD ? new TwoLevelTour(n) : new ArrayTour(n);
+    }
+
+    /*Set this tour to visit the cities in the given order*/
+    public void load(int[] cities);
+
+    /*Write the cities in tour order into cities*/
+    public void store(int[] cities);
+
+    public int next(int city);
+
+    public int prev(int city);
+
+    /*Whether b is on the path going forward from a to c, counting a and c*/
+    public boolean between(int a, int b, int c);
+
+    /*Reverse the path going forward from city from to city to*/
+    public void reverse(int from, int to);
+}
@@ -0,0 +1,40 @@
+/*
+TourChannel.java
+Hands the newest tour of a run from the solver to whoever draws or saves it, without either side ever waiting for the other.
+It holds only the latest snapshot: publishing replaces it, taking empties it, so a slow reader just skips the generations
+it didn't get to, and the solver never blocks on it.
+*/
+
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TourChannel
+{
+    /*A tour as it was at some generation. Never changed once published*/
+    public static class Snapshot
+    {
+        public final int generation;
+        public final int length;
+        public final int[] tour;
+
+        public Snapshot(int generation, int length, int[] tour)
+        {
+            this.generation = generation;
+            this.length = length;
+            this.tour = tour;
+        }
+    }
+
+    final AtomicReference<Snapshot> latest = new AtomicReference<Snapshot>();
+
+    /*Replace the latest snapshot. The tour is handed over, so it mustn't be changed afterwards*/
+    public void publish(Snapshot snapshot)
+    {
+        this.latest.set(snapshot);
+    }
+
+    /*The newest snapshot that hasn't been taken yet, or null if there is none*/
+    public Snapshot take()
+    {
+        return this.latest.getAndSet(null);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+TourHash.java
+A 64 bit fingerprint of a tour that doesn't care where the tour starts or which way it goes: every undirected edge gets its own
+random looking key, Zobrist style, and a tour's hash is the XOR of the keys of its n edges. So a mutation that swaps a few edges
+changes the hash by XORing out the old edges' keys and XORing in the new ones, in O(1), see GeneticSolver.hash_change_at().
+Edge keys come from mixing the two cities, instead of a table, so every solver hashes a tour the same way and migrants compare.
+Seen is a set of hashes, for finding the duplicates in a generation.
+*/
+
+import java.util.Arrays;
+
+public class TourHash
+{
+    /*The key of the edge between cities a and b, the same either way round*/
+    public static long edge(int a, int b)
+    {
+        long z = a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+        // the finalizer of SplittableRandom (splitmix64)
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /*The hash of the tour at tours[base, base+n)*/
+    public static long of(int[] tours, int base, int n)
+    {
+        long hash = edge(tours[base+n-1], tours[base]);
+        for (int i = base; i < base+n-1; i++)
+        {
+            hash ^= edge(tours[i], tours[i+1]);
+        }
+        return hash;
+    }
+
+    /*A set of hashes with room for a fixed number of them, open addressing. clear() is O(1), so it can be reused every generation*/
+    public static class Seen
+    {
+        final long[] hashes;
+        // a slot is taken if its stamp is the current one
+        final int[] stamps;
+        final int mask;
+        int stamp = 1;
+
+        public Seen(int capacity)
+        {
+            int size = Integer.highestOneBit(Math.max(2, 2*capacity - 1)) << 1;
+            this.hashes = new long[size];
+            this.stamps = new int[size];
+            this.mask = size - 1;
+        }
+
+        public void clear()
+        {
+            this.stamp++;
+            if (this.stamp == 0)
+            {
+                Arrays.fill(this.stamps, 0);
+                this.stamp = 1;
+            }
+        }
+
+        /*Adds hash, and returns false if it was there already*/
+        public boolean add(long hash)
+        {
+            int slot = (int) (hash ^ (hash >>> 32)) & this.mask;
+            while (this.stamps[slot] == this.stamp)
+            {
+                if (this.hashes[slot] == hash)
+                {
+                    return false;
+                }
+                slot = (slot + 1) & this.mask;
+            }
+            this.stamps[slot] = this.stamp;
+            this.hashes[slot] = hash;
+            return true;
+        }
+    }
+}
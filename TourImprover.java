@@ -0,0 +1,24 @@
+/*
+TourImprover.java
+Something that improves a tour in place, like a local search. Implementations keep scratch space, so every thread needs its own
+*/
+
+public interface TourImprover
+{
+    /*The kinds of improvers the solver knows how to make*/
+    public enum Kind
+    {
+        // 2-opt and Or-opt moves, see LocalSearch
+        OR_OPT,
+        // chains of 2-opt moves in the style of Lin-Kernighan, see LinKernighan
+        LIN_KERNIGHAN;
+
+        public TourImprover make(DistanceOracle dist, CandidateLists nearest)
+        {
+            return this == OR_OPT ? new LocalSearch(dist, nearest) : new LinKernighan(dist, nearest);
+        }
+    }
+
+    /*Improve tour in place until no move helps or System.nanoTime() passes deadline. Returns the change in length, which is never positive*/
+    public int improve(int[] tour, long deadline);
+}
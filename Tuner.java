@@ -0,0 +1,244 @@
+/*
+Tuner.java
+Searches for good solver parameters by successive halving. It draws a number of random configurations and gives every one
+a short trial on every instance, all with the same CPU time budget, keeps the best 1/eta of them, and repeats with
+eta times the budget until one configuration is left. Since every trial of a round gets the same CPU time, the configuration
+that gets the shortest tours is the one with the best quality per CPU-second.
+
+A trial's score is how far its tour is above the optimum, when we know it, or above the best tour any trial found
+for that instance in that round, otherwise. A configuration's score is its average over the instances.
+
+example usage:
+java Tuner -configs 27 -eta 3 -budget 1 -threads 4 problems/berlin52.tsp solutions/berlin52.opt.tour problems/pr1002.tsp NONE
+*/
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class Tuner
+{
+    // the values the configurations are drawn from
+    static final int[] POPSIZES = {20, 50, 100, 200, 400, 800, 1600};
+    static final double[] MUTATION_RATES = {0, .005, .01, .02, .05, .1};
+    static final double[] PARENT_RATIOS = {.2, .35, .5, .7, .9};
+    static final double[] PERSIST_RATIOS = {.01, .02, .05, .1, .2};
+    static final int[] SAMPLE_SIZES = {2, 3, 4, 6, 8, 12};
+    static final double[] RANK_PRESSURES = {1.2, 1.5, 1.8, 2};
+    // 0 never brings in immigrants
+    static final double[] IMMIGRATION_ENTROPIES = {0, .005, .01, .02};
+
+    static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    int n_configs = 27;
+    int eta = 3;
+    // the CPU seconds each trial gets in the first round
+    double budget = 1;
+    int n_threads = Runtime.getRuntime().availableProcessors();
+    long seed = 1;
+    // what every configuration starts from, e.g. to tune with local search turned on
+    SolverConfig base = new SolverConfig();
+
+    /*One configuration and how it did in the last round it ran in*/
+    static class Candidate
+    {
+        SolverConfig config;
+        double score;
+        double cpu_seconds;
+        int generations;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Tuner tuner = new Tuner();
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "-configs":
+                    tuner.n_configs = Integer.parseInt(args[++i]);
+                    break;
+                case "-eta":
+                    tuner.eta = Math.max(2, Integer.parseInt(args[++i]));
+                    break;
+                case "-budget":
+                    tuner.budget = Double.parseDouble(args[++i]);
+                    break;
+                case "-threads":
+                    tuner.n_threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-seed":
+                    tuner.seed = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    int used = tuner.base.parse(args, i);
+                    if (used > 0)
+                    {
+                        i += used - 1;
+                    }
+                    else
+                    {
+                        files.add(args[i]);
+                    }
+            }
+        }
+        if (files.isEmpty() || files.size() % 2 != 0)
+        {
+            System.out.println("usage: java Tuner [-configs n] [-eta e] [-budget cpu seconds] [-threads k] [-seed s] [solver flags to start from]");
+            System.out.println("                  <problemfile> <solutionfile, or NONE> [<problemfile> <solutionfile, or NONE> ...]");
+            System.exit(1);
+        }
+
+        List<BatchRunner.Instance> instances = new ArrayList<BatchRunner.Instance>();
+        for (int i = 0; i < files.size(); i += 2)
+        {
+            instances.add(BatchRunner.load(files.get(i), files.get(i+1), InstanceCache.DEFAULT_DIR, tuner.base.n_candidates));
+        }
+        Candidate best = tuner.tune(instances);
+        System.out.println("best configuration:");
+        System.out.println(best.config);
+    }
+
+    /*Successive halving over n_configs random configurations. Returns the winner*/
+    public Candidate tune(List<BatchRunner.Instance> instances) throws Exception
+    {
+        SplittableRandom rng = new SplittableRandom(this.seed);
+        List<Candidate> alive = new ArrayList<Candidate>();
+        for (int i = 0; i < this.n_configs; i++)
+        {
+            Candidate c = new Candidate();
+            c.config = i == 0 ? this.base.copy() : this.random_config(rng);
+            alive.add(c);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.n_threads));
+        try
+        {
+            double budget = this.budget;
+            for (int round = 0; ; round++)
+            {
+                this.race(alive, instances, budget, round, executor);
+                alive.sort(Comparator.comparingDouble(c -> c.score));
+
+                System.out.println(String.format(Locale.ROOT, "round %d: %d configurations, %.2f CPU seconds per trial", round, alive.size(), budget));
+                for (Candidate c: alive)
+                {
+                    System.out.println(String.format(Locale.ROOT, "  gap %.5f  %5d gens  %6.2f cpu s  %s", c.score, c.generations, c.cpu_seconds, c.config));
+                }
+
+                if (alive.size() == 1)
+                {
+                    return alive.get(0);
+                }
+                alive = new ArrayList<Candidate>(alive.subList(0, Math.max(1, alive.size() / this.eta)));
+                budget *= this.eta;
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    /*One trial of every configuration on every instance, in parallel, then score them*/
+    void race(List<Candidate> candidates, List<BatchRunner.Instance> instances, double budget, int round, ExecutorService executor) throws Exception
+    {
+        int n_instances = instances.size();
+        int[][] lengths = new int[candidates.size()][n_instances];
+        double[][] cpu = new double[candidates.size()][n_instances];
+        int[][] gens = new int[candidates.size()][n_instances];
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int c = 0; c < candidates.size(); c++)
+        {
+            for (int i = 0; i < n_instances; i++)
+            {
+                SolverConfig config = candidates.get(c).config;
+                BatchRunner.Instance instance = instances.get(i);
+                int ci = c;
+                int ii = i;
+                // every configuration sees the same seed for an instance in a round, so luck is shared out fairly
+                long trial_seed = this.seed + 1000L * round + i;
+                futures.add(executor.submit(() -> {
+                    long cpu_start = threads.getCurrentThreadCpuTime();
+                    GeneticSolver solver = new GeneticSolver(instance.dist, instance.nearest, config);
+                    solver.set_seed(trial_seed);
+                    solver.set_termination(cpu_time_limit(cpu_start + (long) (budget * 1e9)));
+                    try
+                    {
+                        solver.initialize();
+                        while (solver.should_continue())
+                        {
+                            solver.step();
+                        }
+                    }
+                    finally
+                    {
+                        solver.close();
+                    }
+                    lengths[ci][ii] = solver.best_length();
+                    gens[ci][ii] = solver.get_generation();
+                    cpu[ci][ii] = (threads.getCurrentThreadCpuTime() - cpu_start) / 1e9;
+                }));
+            }
+        }
+        for (Future<?> f: futures)
+        {
+            f.get();
+        }
+
+        // score each instance against its optimum, or else against the best tour of the round
+        double[] reference = new double[n_instances];
+        for (int i = 0; i < n_instances; i++)
+        {
+            int best = Integer.MAX_VALUE;
+            for (int[] l: lengths)
+            {
+                best = Math.min(best, l[i]);
+            }
+            int optimum = instances.get(i).optimum;
+            reference[i] = optimum > 0 ? optimum : best;
+        }
+        for (int c = 0; c < candidates.size(); c++)
+        {
+            Candidate candidate = candidates.get(c);
+            candidate.score = 0;
+            for (int i = 0; i < n_instances; i++)
+            {
+                candidate.score += (lengths[c][i] / reference[i] - 1) / n_instances;
+            }
+            candidate.cpu_seconds = Arrays.stream(cpu[c]).sum();
+            candidate.generations = Arrays.stream(gens[c]).sum();
+        }
+    }
+
+    /*Stop once the calling thread has used up its CPU time. The solver steps on the thread that checks, so that's the trial's own time*/
+    static Termination cpu_time_limit(long cpu_deadline)
+    {
+        return solver -> threads.getCurrentThreadCpuTime() >= cpu_deadline;
+    }
+
+    SolverConfig random_config(SplittableRandom rng)
+    {
+        return this.base.copy()
+            .popsize(POPSIZES[rng.nextInt(POPSIZES.length)])
+            .mutation_rate(MUTATION_RATES[rng.nextInt(MUTATION_RATES.length)])
+            .parent_ratio(PARENT_RATIOS[rng.nextInt(PARENT_RATIOS.length)])
+            .persist_ratio(PERSIST_RATIOS[rng.nextInt(PERSIST_RATIOS.length)])
+            .sample_size(SAMPLE_SIZES[rng.nextInt(SAMPLE_SIZES.length)])
+            .mutation(GeneticSolver.Mutation.values()[rng.nextInt(GeneticSolver.Mutation.values().length)])
+            .selection(Selection.Kind.values()[rng.nextInt(Selection.Kind.values().length)])
+            .rank_pressure(RANK_PRESSURES[rng.nextInt(RANK_PRESSURES.length)])
+            .crossover(Crossover.Kind.values()[rng.nextInt(Crossover.Kind.values().length)])
+            .dedup(rng.nextBoolean())
+            .immigration(IMMIGRATION_ENTROPIES[rng.nextInt(IMMIGRATION_ENTROPIES.length)], this.base.immigration_ratio);
+    }
+}
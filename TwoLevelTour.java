@@ -0,0 +1,338 @@
+/*
+TwoLevelTour.java
+A tour kept as a two-level doubly-linked list: the cities are grouped into about sqrt(n) segments, each with a reversed bit,
+and the segments are linked in tour order. next and prev are O(1), between is O(1), and reversals are O(sqrt(n)),
+which is what makes k-opt moves affordable on instances with tens of thousands of cities.
+Reversals split segments, so once there are too many of them the whole structure gets rebuilt.
+*/
+
+public class TwoLevelTour implements Tour
+{
+    final int n;
+    // how many cities go in each segment when we (re)build
+    final int group_size;
+    // how many segments we have room for before we have to rebuild
+    final int capacity;
+
+    // for each city: its segment, its position in the segment's own order, and its neighbors in that order.
+    // ids go up along nxt. At the ends of a segment nxt and prv are meaningless, we check s_first and s_last instead
+    final int[] seg;
+    final int[] id;
+    final int[] nxt;
+    final int[] prv;
+
+    // for each segment: its ends in its own order, whether the tour goes through it backwards,
+    // its neighbors in tour order, and its rank, which goes up by one from segment to segment around the tour
+    final int[] s_first;
+    final int[] s_last;
+    final boolean[] s_rev;
+    final int[] s_next;
+    final int[] s_prev;
+    final int[] s_rank;
+    int n_segs;
+
+    // scratch space for rebuilding and reversing, so nothing gets allocated after construction
+    final int[] scratch;
+    final int[] run;
+    final int[] ranks;
+
+    public TwoLevelTour(int n)
+    {
+        this.n = n;
+        this.group_size = Math.max(8, (int) Math.sqrt(n));
+        this.capacity = 4 * ((n + this.group_size - 1) / this.group_size) + 8;
+
+        this.seg = new int[n];
+        this.id = new int[n];
+        this.nxt = new int[n];
+        this.prv = new int[n];
+
+        this.s_first = new int[this.capacity];
+        this.s_last = new int[this.capacity];
+        this.s_rev = new boolean[this.capacity];
+        this.s_next = new int[this.capacity];
+        this.s_prev = new int[this.capacity];
+        this.s_rank = new int[this.capacity];
+
+        this.scratch = new int[n];
+        this.run = new int[this.capacity];
+        this.ranks = new int[this.capacity];
+    }
+
+    public void load(int[] cities)
+    {
+        this.n_segs = (this.n + this.group_size - 1) / this.group_size;
+        for (int s = 0; s < this.n_segs; s++)
+        {
+            int lo = s * this.group_size;
+            int hi = Math.min(this.n, lo + this.group_size) - 1;
+            this.s_first[s] = cities[lo];
+            this.s_last[s] = cities[hi];
+            this.s_rev[s] = false;
+            this.s_next[s] = s + 1 == this.n_segs ? 0 : s + 1;
+            this.s_prev[s] = s == 0 ? this.n_segs - 1 : s - 1;
+            this.s_rank[s] = s;
+            for (int i = lo; i <= hi; i++)
+            {
+                int city = cities[i];
+                this.seg[city] = s;
+                this.id[city] = i;
+                this.nxt[city] = i < hi ? cities[i+1] : -1;
+                this.prv[city] = i > lo ? cities[i-1] : -1;
+            }
+        }
+    }
+
+    public void store(int[] cities)
+    {
+        int city = this.first_in_tour(0);
+        for (int i = 0; i < this.n; i++)
+        {
+            cities[i] = city;
+            city = this.next(city);
+        }
+    }
+
+    public int next(int city)
+    {
+        int s = this.seg[city];
+        if (!this.s_rev[s])
+        {
+            return city == this.s_last[s] ? this.first_in_tour(this.s_next[s]) : this.nxt[city];
+        }
+        return city == this.s_first[s] ? this.first_in_tour(this.s_next[s]) : this.prv[city];
+    }
+
+    public int prev(int city)
+    {
+        int s = this.seg[city];
+        if (!this.s_rev[s])
+        {
+            return city == this.s_first[s] ? this.last_in_tour(this.s_prev[s]) : this.prv[city];
+        }
+        return city == this.s_last[s] ? this.last_in_tour(this.s_prev[s]) : this.nxt[city];
+    }
+
+    public boolean between(int a, int b, int c)
+    {
+        long ka = this.key(a);
+        long kb = this.key(b);
+        long kc = this.key(c);
+        if (ka <= kc)
+        {
+            return ka <= kb && kb <= kc;
+        }
+        return kb >= ka || kb <= kc;
+    }
+
+    public void reverse(int from, int to)
+    {
+        if (from == to || this.next(to) == from)
+        {
+            // a single city, or the whole tour, which is the same cycle either way
+            return;
+        }
+        if (this.n_segs + 2 > this.capacity)
+        {
+            this.rebuild();
+        }
+
+        // reversing the rest of the tour gives the same cycle, so do whichever spans fewer segments
+        int m = this.n_segs;
+        int span = this.s_rank[this.seg[to]] - this.s_rank[this.seg[from]];
+        if (span < 0 || (span == 0 && this.key(from) > this.key(to)))
+        {
+            span += m;
+        }
+        if (2*span > m)
+        {
+            int temp = from;
+            from = this.next(to);
+            to = this.prev(temp);
+        }
+
+        if (this.seg[from] == this.seg[to] && this.key(from) <= this.key(to))
+        {
+            this.reverse_inside(from, to);
+            return;
+        }
+
+        // make the path be made of whole segments, then reverse the order of those segments
+        this.split_before(from);
+        this.split_before(this.next(to));
+        int first = this.seg[from];
+        int last = this.seg[to];
+
+        int k = 0;
+        for (int s = first; ; s = this.s_next[s])
+        {
+            this.run[k] = s;
+            this.ranks[k] = this.s_rank[s];
+            k++;
+            if (s == last)
+            {
+                break;
+            }
+        }
+
+        int before = this.s_prev[first];
+        int after = this.s_next[last];
+        for (int j = 0; j < k; j++)
+        {
+            // the j-th segment of the reversed run
+            int s = this.run[k-1-j];
+            this.s_rev[s] = !this.s_rev[s];
+            this.s_rank[s] = this.ranks[j];
+            this.s_prev[s] = j == 0 ? before : this.run[k-j];
+            this.s_next[s] = j == k-1 ? after : this.run[k-2-j];
+        }
+        this.s_next[before] = this.run[k-1];
+        this.s_prev[after] = this.run[0];
+    }
+
+    private int first_in_tour(int s)
+    {
+        return this.s_rev[s] ? this.s_last[s] : this.s_first[s];
+    }
+
+    private int last_in_tour(int s)
+    {
+        return this.s_rev[s] ? this.s_first[s] : this.s_last[s];
+    }
+
+    /*Orders the cities going forward around the tour, starting from the segment of rank 0*/
+    private long key(int city)
+    {
+        int s = this.seg[city];
+        int offset = this.s_rev[s] ? this.id[this.s_last[s]] - this.id[city] : this.id[city] - this.id[this.s_first[s]];
+        return (long) this.s_rank[s] * this.n + offset;
+    }
+
+    /*Reverse the path from a forward to b, which are in the same segment with a first. O(segment size)*/
+    private void reverse_inside(int a, int b)
+    {
+        int s = this.seg[a];
+        // the same path in the segment's own order
+        int x = this.s_rev[s] ? b : a;
+        int y = this.s_rev[s] ? a : b;
+        int outside_x = x == this.s_first[s] ? -1 : this.prv[x];
+        int outside_y = y == this.s_last[s] ? -1 : this.nxt[y];
+        int low_id = this.id[x];
+
+        int k = 0;
+        for (int city = x; ; city = this.nxt[city])
+        {
+            this.scratch[k++] = city;
+            if (city == y)
+            {
+                break;
+            }
+        }
+
+        for (int j = 0; j < k; j++)
+        {
+            int city = this.scratch[k-1-j];
+            this.id[city] = low_id + j;
+            this.prv[city] = j == 0 ? outside_x : this.scratch[k-j];
+            this.nxt[city] = j == k-1 ? outside_y : this.scratch[k-2-j];
+        }
+        if (outside_x == -1)
+        {
+            this.s_first[s] = this.scratch[k-1];
+        }
+        else
+        {
+            this.nxt[outside_x] = this.scratch[k-1];
+        }
+        if (outside_y == -1)
+        {
+            this.s_last[s] = this.scratch[0];
+        }
+        else
+        {
+            this.prv[outside_y] = this.scratch[0];
+        }
+    }
+
+    /*Split the segment of city so that city is the first one of its segment in tour order. The smaller half moves to a new segment*/
+    private void split_before(int city)
+    {
+        int s = this.seg[city];
+        if (city == this.first_in_tour(s))
+        {
+            return;
+        }
+
+        // split the segment's own order into [s_first, x] and [y, s_last]
+        int x = this.s_rev[s] ? city : this.prv[city];
+        int y = this.nxt[x];
+        int left_size = this.id[x] - this.id[this.s_first[s]] + 1;
+        int right_size = this.id[this.s_last[s]] - this.id[y] + 1;
+
+        int t = this.n_segs++;
+        this.s_rev[t] = this.s_rev[s];
+        boolean move_left = left_size <= right_size;
+        int moved;
+        if (move_left)
+        {
+            this.s_first[t] = this.s_first[s];
+            this.s_last[t] = x;
+            this.s_first[s] = y;
+            moved = this.s_first[t];
+        }
+        else
+        {
+            this.s_first[t] = y;
+            this.s_last[t] = this.s_last[s];
+            this.s_last[s] = x;
+            moved = y;
+        }
+        for (int c = moved; ; c = this.nxt[c])
+        {
+            this.seg[c] = t;
+            if (c == this.s_last[t])
+            {
+                break;
+            }
+        }
+        this.nxt[x] = -1;
+        this.prv[y] = -1;
+
+        // the left half comes first in tour order unless the segment is reversed
+        if (move_left != this.s_rev[s])
+        {
+            this.s_prev[t] = this.s_prev[s];
+            this.s_next[t] = s;
+            this.s_next[this.s_prev[s]] = t;
+            this.s_prev[s] = t;
+        }
+        else
+        {
+            this.s_next[t] = this.s_next[s];
+            this.s_prev[t] = s;
+            this.s_prev[this.s_next[s]] = t;
+            this.s_next[s] = t;
+        }
+
+        // renumber the ranks around the tour
+        this.renumber();
+    }
+
+    /*Give the segments ranks 0, 1, 2... going around the tour*/
+    private void renumber()
+    {
+        int s = 0;
+        for (int rank = 0; rank < this.n_segs; rank++)
+        {
+            this.s_rank[s] = rank;
+            s = this.s_next[s];
+        }
+    }
+
+    /*Even out the segments again*/
+    private void rebuild()
+    {
+        this.store(this.scratch);
+        this.load(this.scratch);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+Benchmarks.java
+Microbenchmarks of the solver's hot paths over TSPLIB instances, so performance changes can be judged the same way every time.
+Works like a small JMH: every benchmark runs for a few warmup iterations and then a few measured ones of a fixed length,
+and reports operations per second, bytes allocated per operation, and the allocation rate.
+(JMH itself can't be used here, because it refuses benchmark classes in the default package, which is where the solver lives.)
+
+build and run with:
+mvn -Pbench package
+java -cp target/classes Benchmarks [-wi warmup iterations] [-i iterations] [-t ms per iteration] [instance names...]
+*/
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+public class Benchmarks
+{
+    // the instances to run when none are given
+    static final String[] DEFAULT_INSTANCES = {"berlin52", "pr1002", "pcb3038", "rl11849"};
+    // past this many cities the full matrix of TSP.compute_distances is too big to benchmark
+    static final int MATRIX_LIMIT = 5000;
+
+    // results go here so the JIT can't throw the work away
+    static volatile long sink;
+
+    static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /*One operation of a benchmark. Returns something to feed the sink*/
+    interface Op
+    {
+        long run();
+    }
+
+    public static void main(String[] args)
+    {
+        int warmups = 3;
+        int iterations = 5;
+        long iteration_ms = 1000;
+        List<String> instances = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "-wi":
+                    warmups = Integer.parseInt(args[++i]);
+                    break;
+                case "-i":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-t":
+                    iteration_ms = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    instances.add(args[i]);
+            }
+        }
+        if (instances.isEmpty())
+        {
+            instances.addAll(Arrays.asList(DEFAULT_INSTANCES));
+        }
+
+        System.out.println(String.format("%-20s %-10s %22s %14s %12s", "Benchmark", "instance", "ops/s", "B/op", "MB/s alloc"));
+        for (String name: instances)
+        {
+            run_instance(name, warmups, iterations, iteration_ms);
+        }
+    }
+
+    static void run_instance(String name, int warmups, int iterations, long iteration_ms)
+    {
+        int[][] cities = TSP.load_cities("problems/" + name + ".tsp");
+        DistanceOracle dist = TSP.make_distances(cities);
+        int n = cities.length;
+
+        if (n <= MATRIX_LIMIT)
+        {
+            bench("compute_distances", name, warmups, iterations, iteration_ms, () -> TSP.compute_distances(cities).length);
+        }
+        bench("make_distances", name, warmups, iterations, iteration_ms, () -> TSP.make_distances(cities).size());
+        bench("candidate_lists", name, warmups, iterations, iteration_ms, () -> new CandidateLists(dist, 10).k());
+
+        GeneticSolver solver = new GeneticSolver(dist);
+        solver.set_seed(1);
+        solver.initialize();
+        int[] p1 = solver.population.tour(0);
+        int[] p2 = solver.population.tour(1);
+        GeneticSolver.Graph graph = solver.new Graph();
+        int[] child = new int[n];
+        SplittableRandom rng = new SplittableRandom(2);
+
+        bench("path_evaluate", name, warmups, iterations, iteration_ms, () -> solver.tour_length(p1, 0));
+        bench("graph_union", name, warmups, iterations, iteration_ms, () -> {
+            graph.union(p1, p2);
+            return graph.degree[0];
+        });
+        graph.union(p1, p2);
+        bench("graph_NNA", name, warmups, iterations, iteration_ms, () -> graph.NNA(child, rng));
+        int n_parents = solver.parents.length;
+        int n_persisters = (int) Math.round(solver.POPSIZE * solver.PERSIST_RATIO);
+        int[] lengths = solver.population.lengths.clone();
+        bench("fittest", name, warmups, iterations, iteration_ms, () -> solver.selection.fittest(lengths, n_persisters)[0]);
+        bench("tournament_select", name, warmups, iterations, iteration_ms, () -> {
+            solver.selection.select(lengths, solver.parents, n_parents, rng);
+            return solver.parents[0];
+        });
+        // one op is one generation, so ops/s is the generation throughput
+        bench("step", name, warmups, iterations, iteration_ms, () -> {
+            solver.step();
+            return solver.get_generation();
+        });
+    }
+
+    /*Run op over and over for warmup and measured iterations, and print its throughput and allocation*/
+    static void bench(String benchmark, String instance, int warmups, int iterations, long iteration_ms, Op op)
+    {
+        long thread = Thread.currentThread().getId();
+        double[] rates = new double[iterations];
+        long total_ops = 0;
+        long total_bytes = 0;
+        long total_nanos = 0;
+        for (int it = -warmups; it < iterations; it++)
+        {
+            long bytes_before = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            long end = start + iteration_ms * 1000000L;
+            long ops = 0;
+            long now;
+            do
+            {
+                sink += op.run();
+                ops++;
+                now = System.nanoTime();
+            }
+            while (now < end);
+            long bytes = threads.getThreadAllocatedBytes(thread) - bytes_before;
+
+            if (it >= 0)
+            {
+                rates[it] = ops * 1e9 / (now - start);
+                total_ops += ops;
+                total_bytes += bytes;
+                total_nanos += now - start;
+            }
+        }
+
+        double mean = 0;
+        for (double r: rates)
+        {
+            mean += r;
+        }
+        mean /= iterations;
+        double variance = 0;
+        for (double r: rates)
+        {
+            variance += (r - mean) * (r - mean);
+        }
+        double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+
+        System.out.println(String.format("%-20s %-10s %22s %14.1f %12.1f",
+            benchmark, instance, String.format("%.2f +- %.2f", mean, error),
+            (double) total_bytes / total_ops, total_bytes / 1e6 / (total_nanos / 1e9)));
+    }
+}